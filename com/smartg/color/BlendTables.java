@@ -0,0 +1,111 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.util.Arrays;
+
+/**
+ * Lazily created 256x256 lookup tables for separable blend modes. Table index
+ * is <code>(cb &lt;&lt; 8) | cs</code>, where cb (backdrop) and cs (source)
+ * are 8 bit values. Tables are shared by all IComposites.
+ */
+class BlendTables {
+
+    private static byte[][] tables;
+
+    /**
+     * @return true if blend result of given type is separable and always in
+     *         range from 0 to 1.
+     */
+    static boolean isSupported(CompositeType type) {
+	switch (type) {
+	case MULTIPLY:
+	case SCREEN:
+	case OVERLAY:
+	case DARKEN:
+	case LIGHTEN:
+	case COLORDODGE:
+	case COLORBURN:
+	case HARDLIGHT:
+	case SOFTLIGHT:
+	case DIFFERENCE:
+	case EXCLUSION:
+	case SUB:
+	    return true;
+	default:
+	    return false;
+	}
+    }
+
+    /**
+     * Get (and create if necessary) table for given type.
+     * 
+     * @param composer
+     *            Composer which is used to compute table values
+     */
+    static synchronized byte[] getTable(CompositeType type, Composer composer) {
+	if (tables == null) {
+	    tables = new byte[CompositeType.values().length][];
+	}
+	int index = type.ordinal();
+	if (tables[index] == null) {
+	    tables[index] = createTable(composer);
+	}
+	return tables[index];
+    }
+
+    private static byte[] createTable(Composer composer) {
+	byte[] table = new byte[256 * 256];
+
+	float[] cs = new float[256];
+	float[] cb = new float[256];
+	float[] res = new float[256];
+
+	for (int i = 0; i < 256; i++) {
+	    cs[i] = i / 255f;
+	}
+
+	for (int b = 0; b < 256; b++) {
+	    Arrays.fill(cb, b / 255f);
+	    composer.composeRow(cs, cs, cs, cb, cb, cb, res, res, res, 0, 256);
+	    for (int s = 0; s < 256; s++) {
+		int v = Math.round(res[s] * 255);
+		if (v < 0) {
+		    v = 0;
+		} else if (v > 255) {
+		    v = 255;
+		}
+		table[(b << 8) | s] = (byte) v;
+	    }
+	}
+	return table;
+    }
+}
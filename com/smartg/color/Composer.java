@@ -36,8 +36,63 @@ public abstract class Composer {
 
     final float denom = 1f / 255f;
 
+    /**
+     * Vector backend, null if it is not on class path, module
+     * jdk.incubator.vector is not available or it is disabled with
+     * <code>-Dcom.smartg.color.vector=false</code>.
+     */
+    static final PlaneKernels vectorKernels = loadVectorKernels();
+
+    private static PlaneKernels loadVectorKernels() {
+	if ("false".equals(System.getProperty("com.smartg.color.vector"))) {
+	    return null;
+	}
+	try {
+	    Class<?> c = Class.forName("com.smartg.color.VectorPlaneKernels");
+	    return (PlaneKernels) c.getDeclaredConstructor().newInstance();
+	} catch (Throwable t) {
+	    // class or module is missing
+	    return null;
+	}
+    }
+
+    /**
+     * @return true if separable blend modes (except of NORMAL, which is just
+     *         a copy) are computed with jdk.incubator.vector
+     */
+    public static boolean isVectorized() {
+	return vectorKernels != null;
+    }
+
     public abstract void compose(int[] src, int[] dst, float[] result);
 
+    /**
+     * Compose <code>length</code> pixels of planar rows starting at
+     * <code>offset</code>. All values are in range from 0 to 1. Result arrays
+     * may be the same as src or dst arrays.
+     * <p>
+     * Default implementation calls compose(int[], int[], float[]) for every
+     * pixel, subclasses should override it.
+     */
+    public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+	    float[] resB, int offset, int length) {
+	int[] src = new int[3];
+	int[] dst = new int[3];
+	float[] result = new float[3];
+	for (int i = offset, end = offset + length; i < end; i++) {
+	    src[0] = (int) (srcR[i] * 255 + 0.5f);
+	    src[1] = (int) (srcG[i] * 255 + 0.5f);
+	    src[2] = (int) (srcB[i] * 255 + 0.5f);
+	    dst[0] = (int) (dstR[i] * 255 + 0.5f);
+	    dst[1] = (int) (dstG[i] * 255 + 0.5f);
+	    dst[2] = (int) (dstB[i] * 255 + 0.5f);
+	    compose(src, dst, result);
+	    resR[i] = result[0];
+	    resG[i] = result[1];
+	    resB[i] = result[2];
+	}
+    }
+
     //
     // private static float[] create() {
     // float[] res = new float[256];
@@ -47,6 +102,28 @@ public abstract class Composer {
     // return res;
     // }
 
+    /**
+     * Base class for separable blend modes, which are computed for every color
+     * channel independently.
+     */
+    abstract static class Separable extends Composer {
+
+	/**
+	 * Compose one color channel of <code>length</code> pixels starting at
+	 * <code>offset</code>. All values are in range from 0 to 1. Result array
+	 * may be the same as src or dst array.
+	 */
+	public abstract void composePlane(float[] src, float[] dst, float[] res, int offset, int length);
+
+	@Override
+	public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+		float[] resB, int offset, int length) {
+	    composePlane(srcR, dstR, resR, offset, length);
+	    composePlane(srcG, dstG, resG, offset, length);
+	    composePlane(srcB, dstB, resB, offset, length);
+	}
+    }
+
     final float multiply(float cb, float cs) {
 	return cb * cs;
     }
@@ -62,43 +139,122 @@ public abstract class Composer {
 	return cb + cs - (cb * cs);
     }
 
-    static class Subtract extends Composer {
+    final float overlay(float cb, float cs) {
+	return hardlight(cs, cb);
+    }
+
+    final float colorDodge(float cb, float cs) {
+	if (cs < 1.0) {
+	    return Math.min(1, cb / (1 - cs));
+	}
+	return 1;
+    }
+
+    final float colorBurn(float cb, float cs) {
+	if (cs > 0) {
+	    return 1 - Math.min(1, (1 - cb) / cs);
+	}
+	return 0;
+    }
+
+    final float softlight(float cb, float cs) {
+	if (cs <= 0.5f) {
+	    return cb - (1 - (cs + cs)) * (cb - cb * cb);
+	}
+	float dx;
+	if (cb > 0.25) {
+	    dx = (float) Math.sqrt(cb);
+	} else {
+	    dx = ((16 * cb - 12) * cb + 4) * cb;
+	}
+	return cb + (cs + cs - 1) * (dx - cb);
+    }
+
+    final float exclusion(float cb, float cs) {
+	float m = cs * cb;
+	return cb + cs - (m + m);
+    }
+
+    final float subtract(float cb, float cs) {
+	return Math.max(0, cb - cs);
+    }
+
+    final float add(float cb, float cs) {
+	return cb + cs;
+    }
+
+    final float distance(float cb, float cs) {
+	return (float) Math.sqrt(cb * cb + cs * cs);
+    }
+
+    static class Subtract extends Separable {
 
 	@Override
 	public void compose(int[] src, int[] dst, float[] result) {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		result[i] = Math.max(0, cb - cs);
+		result[i] = subtract(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.subtract(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = Math.max(0f, dst[i] - src[i]);
 	    }
 	}
     }
 
-    static class Add extends Composer {
+    static class Add extends Separable {
 
 	@Override
 	public void compose(int[] src, int[] dst, float[] result) {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		result[i] = cb + cs;
+		result[i] = add(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.add(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = dst[i] + src[i];
 	    }
 	}
     }
 
-    static class Distance extends Composer {
+    static class Distance extends Separable {
 
 	@Override
 	public void compose(int[] src, int[] dst, float[] result) {
 	    for (int i = 0; i < src.length; i++) {
-		float cb = src[i] * denom;
-		float cs = dst[i] * denom;
-		result[i] = (float) Math.sqrt(cb * cb + cs * cs);
+		float cs = src[i] * denom;
+		float cb = dst[i] * denom;
+		result[i] = distance(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = distance(dst[i], src[i]);
 	    }
 	}
     }
 
-    static class Normal extends Composer {
+    static class Normal extends Separable {
 
 	Normal() {
 	    type = "Normal";
@@ -109,6 +265,13 @@ public abstract class Composer {
 		result[i] = src[i] * denom;
 	    }
 	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    if (src != res) {
+		System.arraycopy(src, offset, res, offset, length);
+	    }
+	}
     }
 
     final float lum(float[] color) {
@@ -232,7 +395,104 @@ public abstract class Composer {
 	}
     }
 
-    static class Multiply extends Composer {
+    /**
+     * Row version of setSat(color, sat(satColor)) followed by setLum(color,
+     * lum(lumColor)). Works on local variables only, results are the same as
+     * from setSat/setLum/clipColor (except of float rounding).
+     */
+    static void setSatLumRow(float[] r, float[] g, float[] b, float[] satR, float[] satG, float[] satB, float[] lumR, float[] lumG, float[] lumB,
+	    float[] resR, float[] resG, float[] resB, int offset, int length) {
+	for (int i = offset, end = offset + length; i < end; i++) {
+	    float cr = r[i];
+	    float cg = g[i];
+	    float cb = b[i];
+
+	    float sr = satR[i];
+	    float sg = satG[i];
+	    float sb = satB[i];
+	    float S = Math.max(sr, Math.max(sg, sb)) - Math.min(sr, Math.min(sg, sb));
+	    float L = 0.3f * lumR[i] + 0.59f * lumG[i] + 0.11f * lumB[i];
+
+	    // setSat
+	    float n = Math.min(cr, Math.min(cg, cb));
+	    float x = Math.max(cr, Math.max(cg, cb));
+	    if (x > n) {
+		float k = S / (x - n);
+		cr = (cr - n) * k;
+		cg = (cg - n) * k;
+		cb = (cb - n) * k;
+	    } else {
+		// setSat() clears only first channel if all channels are equal
+		cr = 0;
+	    }
+
+	    // setLum
+	    float d = L - (0.3f * cr + 0.59f * cg + 0.11f * cb);
+	    cr += d;
+	    cg += d;
+	    cb += d;
+
+	    // clipColor
+	    float l = 0.3f * cr + 0.59f * cg + 0.11f * cb;
+	    n = Math.min(cr, Math.min(cg, cb));
+	    x = Math.max(cr, Math.max(cg, cb));
+	    if (n < 0) {
+		float k = l / (l - n);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    if (x > 1) {
+		float k = (1 - l) / (x - l);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    resR[i] = cr;
+	    resG[i] = cg;
+	    resB[i] = cb;
+	}
+    }
+
+    /**
+     * Row version of setLum(color, lum(lumColor)).
+     */
+    static void setLumRow(float[] r, float[] g, float[] b, float[] lumR, float[] lumG, float[] lumB, float[] resR, float[] resG, float[] resB,
+	    int offset, int length) {
+	for (int i = offset, end = offset + length; i < end; i++) {
+	    float cr = r[i];
+	    float cg = g[i];
+	    float cb = b[i];
+
+	    float L = 0.3f * lumR[i] + 0.59f * lumG[i] + 0.11f * lumB[i];
+
+	    float d = L - (0.3f * cr + 0.59f * cg + 0.11f * cb);
+	    cr += d;
+	    cg += d;
+	    cb += d;
+
+	    float l = 0.3f * cr + 0.59f * cg + 0.11f * cb;
+	    float n = Math.min(cr, Math.min(cg, cb));
+	    float x = Math.max(cr, Math.max(cg, cb));
+	    if (n < 0) {
+		float k = l / (l - n);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    if (x > 1) {
+		float k = (1 - l) / (x - l);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    resR[i] = cr;
+	    resG[i] = cg;
+	    resB[i] = cb;
+	}
+    }
+
+    static class Multiply extends Separable {
 
 	Multiply() {
 	    type = "Multiply";
@@ -242,12 +502,24 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		result[i] = cs * cb;
+		result[i] = multiply(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.multiply(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = src[i] * dst[i];
 	    }
 	}
     }
 
-    static class Screen extends Composer {
+    static class Screen extends Separable {
 
 	Screen() {
 	    type = "Screen";
@@ -257,12 +529,26 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		result[i] = (cb + cs - (cb * cs));
+		result[i] = screen(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.screen(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		float cs = src[i];
+		float cb = dst[i];
+		res[i] = cb + cs - (cb * cs);
 	    }
 	}
     }
 
-    static class Overlay extends Composer {
+    static class Overlay extends Separable {
 
 	Overlay() {
 	    type = "Overlay";
@@ -272,12 +558,19 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		result[i] = hardlight(cs, cb);
+		result[i] = overlay(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = overlay(dst[i], src[i]);
 	    }
 	}
     }
 
-    static class Darken extends Composer {
+    static class Darken extends Separable {
 
 	Darken() {
 	    type = "Darken";
@@ -288,9 +581,21 @@ public abstract class Composer {
 		result[i] = Math.min(src[i], dst[i]) * denom;
 	    }
 	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.darken(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = Math.min(src[i], dst[i]);
+	    }
+	}
     }
 
-    static class Lighten extends Composer {
+    static class Lighten extends Separable {
 
 	Lighten() {
 	    type = "Lighten";
@@ -301,9 +606,21 @@ public abstract class Composer {
 		result[i] = Math.max(src[i], dst[i]) * denom;
 	    }
 	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.lighten(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = Math.max(src[i], dst[i]);
+	    }
+	}
     }
 
-    static class ColorDodge extends Composer {
+    static class ColorDodge extends Separable {
 
 	ColorDodge() {
 	    type = "ColorDodge";
@@ -313,16 +630,19 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		if (cs < 1.0) {
-		    result[i] = Math.min(1, cb / (1 - cs));
-		} else {
-		    result[i] = 1;
-		}
+		result[i] = colorDodge(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = colorDodge(dst[i], src[i]);
 	    }
 	}
     }
 
-    static class ColorBurn extends Composer {
+    static class ColorBurn extends Separable {
 
 	ColorBurn() {
 	    type = "ColorBurn";
@@ -332,16 +652,19 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		if (cs > 0) {
-		    result[i] = (1 - Math.min(1, (1 - cb) / cs));
-		} else {
-		    result[i] = 0;
-		}
+		result[i] = colorBurn(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = colorBurn(dst[i], src[i]);
 	    }
 	}
     }
 
-    static class HardLight extends Composer {
+    static class HardLight extends Separable {
 
 	HardLight() {
 	    type = "HardLight";
@@ -354,9 +677,16 @@ public abstract class Composer {
 		result[i] = hardlight(cb, cs);
 	    }
 	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = hardlight(dst[i], src[i]);
+	    }
+	}
     }
 
-    static class SoftLight extends Composer {
+    static class SoftLight extends Separable {
 
 	SoftLight() {
 	    type = "SoftLight";
@@ -366,22 +696,19 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
-		if (cs <= 0.5f) {
-		    result[i] = (cb - (1 - (cs + cs)) * (cb - cb * cb));
-		} else {
-		    float dx;
-		    if (cb > 0.25) {
-			dx = (float) Math.sqrt(cb);
-		    } else {
-			dx = ((16 * cb - 12) * cb + 4) * cb;
-		    }
-		    result[i] = (cb + (cs + cs - 1) * (dx - cb));
-		}
+		result[i] = softlight(cb, cs);
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = softlight(dst[i], src[i]);
 	    }
 	}
     }
 
-    static class Difference extends Composer {
+    static class Difference extends Separable {
 
 	Difference() {
 	    type = "Difference";
@@ -393,9 +720,21 @@ public abstract class Composer {
 		// result[i] = (src[i] - dst[i]) * denom;
 	    }
 	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.difference(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = Math.abs(src[i] - dst[i]);
+	    }
+	}
     }
 
-    static class Exclusion extends Composer {
+    static class Exclusion extends Separable {
 
 	Exclusion() {
 	    type = "Exclusion";
@@ -405,9 +744,22 @@ public abstract class Composer {
 	    for (int i = 0; i < src.length; i++) {
 		float cs = src[i] * denom;
 		float cb = dst[i] * denom;
+		result[i] = exclusion(cb, cs);
+	    }
+	}
 
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final PlaneKernels kernels = vectorKernels;
+	    if (kernels != null) {
+		kernels.exclusion(src, dst, res, offset, length);
+		return;
+	    }
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		float cs = src[i];
+		float cb = dst[i];
 		float m = cs * cb;
-		result[i] = (cb + cs - (m + m));
+		res[i] = cb + cs - (m + m);
 	    }
 	}
     }
@@ -430,6 +782,12 @@ public abstract class Composer {
 	    setSat(cs, b_sat);
 	    setLum(cs, b_lum);
 	}
+
+	@Override
+	public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+		float[] resB, int offset, int length) {
+	    setSatLumRow(dstR, dstG, dstB, srcR, srcG, srcB, srcR, srcG, srcB, resR, resG, resB, offset, length);
+	}
     }
 
     static class Saturation extends Composer {
@@ -451,6 +809,12 @@ public abstract class Composer {
 	    setSat(cb, s_sat);
 	    setLum(cb, b_lum);
 	}
+
+	@Override
+	public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+		float[] resB, int offset, int length) {
+	    setSatLumRow(dstR, dstG, dstB, srcR, srcG, srcB, dstR, dstG, dstB, resR, resG, resB, offset, length);
+	}
     }
 
     static class Color extends Composer {
@@ -469,6 +833,12 @@ public abstract class Composer {
 	    float b_lum = lum(cb);
 	    setLum(cs, b_lum);
 	}
+
+	@Override
+	public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+		float[] resB, int offset, int length) {
+	    setLumRow(dstR, dstG, dstB, srcR, srcG, srcB, resR, resG, resB, offset, length);
+	}
     }
 
     static class Luminosity extends Composer {
@@ -487,5 +857,45 @@ public abstract class Composer {
 	    float s_lum = lum(cs);
 	    setLum(cb, s_lum);
 	}
+
+	@Override
+	public void composeRow(float[] srcR, float[] srcG, float[] srcB, float[] dstR, float[] dstG, float[] dstB, float[] resR, float[] resG,
+		float[] resB, int offset, int length) {
+	    setLumRow(dstR, dstG, dstB, srcR, srcG, srcB, resR, resG, resB, offset, length);
+	}
+    }
+
+    /**
+     * Evaluates separable blend mode with a 256x256 lookup table (see
+     * BlendTables). Input values are quantized to 8 bit.
+     */
+    static class Lookup extends Separable {
+
+	final Composer composer;
+	final byte[] table;
+
+	Lookup(Composer composer, byte[] table) {
+	    this.composer = composer;
+	    this.table = table;
+	    type = composer.type;
+	}
+
+	public void compose(int[] src, int[] dst, float[] result) {
+	    for (int i = 0; i < src.length; i++) {
+		result[i] = (table[(dst[i] << 8) | src[i]] & 0xFF) * denom;
+	    }
+	}
+
+	@Override
+	public void composePlane(float[] src, float[] dst, float[] res, int offset, int length) {
+	    final byte[] table = this.table;
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		res[i] = (table[index(dst[i], src[i])] & 0xFF) * denom;
+	    }
+	}
+
+	private static int index(float cb, float cs) {
+	    return ((int) (cb * 255 + 0.5f) << 8) | (int) (cs * 255 + 0.5f);
+	}
     }
 }
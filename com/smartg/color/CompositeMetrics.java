@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.management.ObjectName;
+
+/**
+ * Throughput metrics of compositing per blend mode and raster layout.
+ * Metrics are recorded only if system property
+ * <code>com.smartg.color.metrics</code> is set to true, then they are
+ * registered as platform MBean <code>com.smartg.color:type=CompositeMetrics</code>.
+ * Otherwise the check of {@link #ENABLED} is removed by JIT and there is no
+ * overhead.
+ * <p>
+ * Fast path is compose() call where all rasters are accessed through their
+ * data arrays, fallback path goes through Raster.getSamples.
+ */
+public class CompositeMetrics implements CompositeMetricsMBean {
+
+    public static final boolean ENABLED = Boolean.getBoolean("com.smartg.color.metrics");
+
+    public static final String OBJECT_NAME = "com.smartg.color:type=CompositeMetrics";
+
+    enum Layout {
+	INT_PACKED, BYTE_INTERLEAVED, USHORT_INTERLEAVED, FLOAT_INTERLEAVED, GENERIC, SUBTRACTIVE
+    }
+
+    private static final int MODES = CompositeType.values().length;
+    private static final int LAYOUTS = Layout.values().length;
+
+    private static final CompositeMetrics instance = new CompositeMetrics();
+
+    private final AtomicLongArray pixels = new AtomicLongArray(MODES * LAYOUTS);
+    private final AtomicLongArray nanos = new AtomicLongArray(MODES * LAYOUTS);
+    private final AtomicLongArray fast = new AtomicLongArray(MODES * LAYOUTS);
+    private final AtomicLongArray fallback = new AtomicLongArray(MODES * LAYOUTS);
+
+    static {
+	if (ENABLED) {
+	    try {
+		ManagementFactory.getPlatformMBeanServer().registerMBean(instance, new ObjectName(OBJECT_NAME));
+	    } catch (Exception ex) {
+		Logger.getGlobal().log(Level.WARNING, "Can't register " + OBJECT_NAME, ex);
+	    }
+	}
+    }
+
+    private CompositeMetrics() {
+    }
+
+    public static CompositeMetrics getInstance() {
+	return instance;
+    }
+
+    static Layout layout(RasterRows rows) {
+	if (rows instanceof RasterRows.IntPacked) {
+	    return Layout.INT_PACKED;
+	}
+	if (rows instanceof RasterRows.ByteInterleaved) {
+	    return Layout.BYTE_INTERLEAVED;
+	}
+	if (rows instanceof RasterRows.UShortInterleaved) {
+	    return Layout.USHORT_INTERLEAVED;
+	}
+	if (rows instanceof RasterRows.FloatInterleaved) {
+	    return Layout.FLOAT_INTERLEAVED;
+	}
+	return Layout.GENERIC;
+    }
+
+    /**
+     * Record one compose() call. Layout is layout of destination.
+     */
+    static void record(CompositeType type, Layout layout, boolean fastPath, long count, long time) {
+	int index = type.ordinal() * LAYOUTS + layout.ordinal();
+	instance.pixels.addAndGet(index, count);
+	instance.nanos.addAndGet(index, time);
+	if (fastPath) {
+	    instance.fast.incrementAndGet(index);
+	} else {
+	    instance.fallback.incrementAndGet(index);
+	}
+    }
+
+    public boolean isEnabled() {
+	return ENABLED;
+    }
+
+    public String[] getEntries() {
+	List<String> entries = new ArrayList<String>();
+	for (int i = 0; i < MODES * LAYOUTS; i++) {
+	    if (fast.get(i) + fallback.get(i) > 0) {
+		entries.add(entry(i));
+	    }
+	}
+	return entries.toArray(new String[entries.size()]);
+    }
+
+    public String getHotspot() {
+	int hotspot = -1;
+	long max = 0;
+	for (int i = 0; i < MODES * LAYOUTS; i++) {
+	    long t = nanos.get(i);
+	    if (t > max) {
+		max = t;
+		hotspot = i;
+	    }
+	}
+	return hotspot < 0 ? "" : entry(hotspot);
+    }
+
+    private String entry(int index) {
+	CompositeType type = CompositeType.values()[index / LAYOUTS];
+	Layout layout = Layout.values()[index % LAYOUTS];
+	long p = pixels.get(index);
+	long t = nanos.get(index);
+	double mps = t == 0 ? 0 : p * 1e3 / t;
+	return String.format(Locale.ENGLISH, "%s %s: pixels=%d, ms=%d, MP/s=%.1f, fast=%d, fallback=%d", type, layout, p, t / 1000000, mps,
+		fast.get(index), fallback.get(index));
+    }
+
+    public long getTotalPixels() {
+	return sum(pixels, 0, MODES * LAYOUTS);
+    }
+
+    public long getTotalNanos() {
+	return sum(nanos, 0, MODES * LAYOUTS);
+    }
+
+    public long getPixels(String mode) {
+	int from = CompositeType.valueOf(mode).ordinal() * LAYOUTS;
+	return sum(pixels, from, from + LAYOUTS);
+    }
+
+    public long getNanos(String mode) {
+	int from = CompositeType.valueOf(mode).ordinal() * LAYOUTS;
+	return sum(nanos, from, from + LAYOUTS);
+    }
+
+    private static long sum(AtomicLongArray array, int from, int to) {
+	long sum = 0;
+	for (int i = from; i < to; i++) {
+	    sum += array.get(i);
+	}
+	return sum;
+    }
+
+    public void reset() {
+	for (int i = 0; i < MODES * LAYOUTS; i++) {
+	    pixels.set(i, 0);
+	    nanos.set(i, 0);
+	    fast.set(i, 0);
+	    fallback.set(i, 0);
+	}
+    }
+}
@@ -30,6 +30,8 @@
 
 package com.smartg.color;
 
+import java.util.HashMap;
+
 /**
  * @author Andrey Kuznetsov
  */
@@ -37,9 +39,55 @@ class GammaTables {
     public float[] forward;
     public int[] inverse;
 
+    /**
+     * Number of intervals in encode tables.
+     */
+    static final int ENCODE_TABLE_SIZE = 1 << 16;
+
+    /**
+     * Power curves have infinite slope at 0 and can't be interpolated there,
+     * values below ENCODE_TABLE_MIN should be computed exactly.
+     */
+    static final float ENCODE_TABLE_MIN = 1f / 4096;
+
+    private static final HashMap<Long, float[]> encodeTables = new HashMap<Long, float[]>();
+
     private GammaTables() {
     }
 
+    /**
+     * Get (and create if necessary) table which maps linear values from 0 to
+     * 1 to gamma encoded values from 0 to 1. Table has
+     * <code>ENCODE_TABLE_SIZE + 2</code> entries, last entry is repeated so
+     * interpolation at 1 doesn't need a check. Tables are shared by all color
+     * spaces with same transfer curve.
+     * 
+     * @param igamma
+     *            inverse gamma
+     * @param sRGB
+     *            if true, then sRGB transfer function is used
+     */
+    static synchronized float[] getEncodeTable(float igamma, boolean sRGB) {
+	Long key = Long.valueOf(((long) Float.floatToIntBits(igamma) << 1) | (sRGB ? 1 : 0));
+	float[] table = encodeTables.get(key);
+	if (table == null) {
+	    table = new float[ENCODE_TABLE_SIZE + 2];
+	    for (int i = 0; i <= ENCODE_TABLE_SIZE; i++) {
+		double k = (double) i / ENCODE_TABLE_SIZE;
+		if (!sRGB) {
+		    table[i] = (float) Math.pow(k, igamma);
+		} else if (k < 0.0031308) {
+		    table[i] = (float) (k * 12.92);
+		} else {
+		    table[i] = (float) (1.055 * Math.pow(k, igamma) - 0.055);
+		}
+	    }
+	    table[ENCODE_TABLE_SIZE + 1] = table[ENCODE_TABLE_SIZE];
+	    encodeTables.put(key, table);
+	}
+	return table;
+    }
+
     static GammaTables create(float gamma, int bps) {
 
 	final int max = (1 << bps) - 1;
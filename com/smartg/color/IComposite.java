@@ -33,14 +33,81 @@ package com.smartg.color;
 import java.awt.Composite;
 import java.awt.CompositeContext;
 import java.awt.RenderingHints;
+import java.awt.color.ColorSpace;
 import java.awt.image.ColorModel;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 public class IComposite implements Composite {
 
+    /**
+     * Rendering hint which selects arithmetic used by compositing.
+     * 
+     * @see #VALUE_ARITHMETIC_FLOAT
+     * @see #VALUE_ARITHMETIC_FIXED
+     */
+    public static final RenderingHints.Key KEY_ARITHMETIC = new HintKey(0, "Compositing arithmetic");
+
+    /**
+     * Compositing is done with float values (default).
+     */
+    public static final Object VALUE_ARITHMETIC_FLOAT = "Float arithmetic";
+
+    /**
+     * Compositing of 8 bit rasters is done with integer values only (alpha
+     * blending, NORMAL and all modes supported by lookup tables). Other
+     * rasters and modes are composed with float arithmetic.
+     */
+    public static final Object VALUE_ARITHMETIC_FIXED = "Fixed point arithmetic";
+
+    private static class HintKey extends RenderingHints.Key {
+
+	private final String name;
+
+	HintKey(int privatekey, String name) {
+	    super(privatekey);
+	    this.name = name;
+	}
+
+	@Override
+	public boolean isCompatibleValue(Object val) {
+	    return val == VALUE_ARITHMETIC_FLOAT || val == VALUE_ARITHMETIC_FIXED;
+	}
+
+	@Override
+	public String toString() {
+	    return name;
+	}
+    }
+
+    /**
+     * Default minimal pixel count for parallel compositing.
+     */
+    public static final int DEFAULT_PARALLEL_THRESHOLD = 512 * 512;
+
+    /**
+     * Default number of disposed contexts kept for reuse.
+     */
+    public static final int DEFAULT_CONTEXT_POOL_SIZE = 4;
+
     private float alpha;
     private CompositeType type;
+    private boolean lookupMode;
+    private SoftMask softMask;
+
+    private int parallelThreshold = DEFAULT_PARALLEL_THRESHOLD;
+    private ForkJoinPool forkJoinPool;
+
+    private int contextPoolSize = DEFAULT_CONTEXT_POOL_SIZE;
+    private final ArrayDeque<PDF_CompositeContext> contextPool = new ArrayDeque<PDF_CompositeContext>();
+    private final ArrayDeque<SubtractiveContext> subtractivePool = new ArrayDeque<SubtractiveContext>();
+
+    private final AtomicLong skippedPixels = new AtomicLong();
+    private final AtomicLong copiedPixels = new AtomicLong();
 
     protected Composer composer;
 
@@ -65,6 +132,148 @@ public class IComposite implements Composite {
 	return composer;
     }
 
+    public SoftMask getSoftMask() {
+	return softMask;
+    }
+
+    /**
+     * Set soft mask, null to remove it. Mask values are multiplied into
+     * source alpha while composing, fixed point arithmetic is not used for
+     * masked compositing.
+     */
+    public void setSoftMask(SoftMask softMask) {
+	this.softMask = softMask;
+    }
+
+    public boolean isLookupMode() {
+	return lookupMode;
+    }
+
+    /**
+     * In lookup mode separable blend modes are computed with precomputed
+     * 256x256 tables which are shared by all IComposites. Blend results are
+     * quantized to 8 bit, so this mode is intended for 8 bit images only.
+     * Modes without table (NORMAL, ADD, DISTANCE and non-separable modes)
+     * are computed as usual.
+     */
+    public void setLookupMode(boolean lookupMode) {
+	this.lookupMode = lookupMode;
+	setType(type);
+    }
+
+    public int getParallelThreshold() {
+	return parallelThreshold;
+    }
+
+    /**
+     * Regions with at least <code>parallelThreshold</code> pixels are split
+     * into row bands which are composed in parallel. Use Integer.MAX_VALUE
+     * to always compose on calling thread.
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+	this.parallelThreshold = parallelThreshold;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+	return forkJoinPool;
+    }
+
+    /**
+     * Set pool for parallel compositing. If pool is null (default), then
+     * ForkJoinPool.commonPool() is used.
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+	this.forkJoinPool = forkJoinPool;
+    }
+
+    public int getContextPoolSize() {
+	return contextPoolSize;
+    }
+
+    /**
+     * Disposed contexts (with their scratch buffers) are kept for reuse by
+     * createContext, so compositing with same IComposite doesn't allocate
+     * row buffers again. Use 0 to disable pooling. Contexts for subtractive
+     * color spaces are pooled separately with same pool size.
+     */
+    public void setContextPoolSize(int contextPoolSize) {
+	synchronized (contextPool) {
+	    this.contextPoolSize = contextPoolSize;
+	    while (contextPool.size() > contextPoolSize) {
+		PDF_CompositeContext context = contextPool.poll();
+		context.pooled = false;
+		context.release();
+	    }
+	    while (subtractivePool.size() > contextPoolSize) {
+		SubtractiveContext context = subtractivePool.poll();
+		context.pooled = false;
+		context.release();
+	    }
+	}
+    }
+
+    /**
+     * Called by disposed context.
+     * 
+     * @return true if context was added to pool
+     */
+    boolean releaseContext(PDF_CompositeContext context) {
+	synchronized (contextPool) {
+	    if (context.pooled || contextPool.size() >= contextPoolSize) {
+		return context.pooled;
+	    }
+	    context.pooled = true;
+	    contextPool.offer(context);
+	    return true;
+	}
+    }
+
+    /**
+     * Called by disposed subtractive context.
+     * 
+     * @return true if context was added to pool
+     */
+    boolean releaseContext(SubtractiveContext context) {
+	synchronized (contextPool) {
+	    if (context.pooled || subtractivePool.size() >= contextPoolSize) {
+		return context.pooled;
+	    }
+	    context.pooled = true;
+	    subtractivePool.offer(context);
+	    return true;
+	}
+    }
+
+    /**
+     * Number of pixels left unchanged by contexts of this IComposite because
+     * source alpha was 0.
+     */
+    public long getSkippedPixels() {
+	return skippedPixels.get();
+    }
+
+    /**
+     * Number of pixels copied from source without blending (opaque source in
+     * NORMAL mode).
+     */
+    public long getCopiedPixels() {
+	return copiedPixels.get();
+    }
+
+    public void resetPixelCounts() {
+	skippedPixels.set(0);
+	copiedPixels.set(0);
+    }
+
+    void countPixels(long skipped, long copied) {
+	if (skipped != 0) {
+	    skippedPixels.addAndGet(skipped);
+	}
+	if (copied != 0) {
+	    copiedPixels.addAndGet(copied);
+	}
+    }
+
     public void setType(CompositeType type) {
 	this.type = type;
 	switch (type) {
@@ -130,9 +339,87 @@ public class IComposite implements Composite {
 	    composer = new Composer.Normal();
 	    break;
 	}
+	if (lookupMode && BlendTables.isSupported(type)) {
+	    composer = new Composer.Lookup(composer, BlendTables.getTable(type, composer));
+	}
+    }
+
+    /**
+     * Create context for CMYK or DeviceN rasters with
+     * <code>numColorants</code> bands and optional alpha band. Used by
+     * createContext() if destination color space is CMYK, CMY or
+     * n-component.
+     * 
+     * @param processColorants
+     *            number of leading process colorants: 4 (CMYK), 3 (CMY) or 0
+     *            (spot colorants only)
+     * @see SubtractiveContext
+     */
+    public CompositeContext createSubtractiveContext(int numColorants, int processColorants) {
+	synchronized (contextPool) {
+	    for (Iterator<SubtractiveContext> it = subtractivePool.iterator(); it.hasNext();) {
+		SubtractiveContext context = it.next();
+		if (context.numColorants == numColorants && context.processColorants == processColorants) {
+		    it.remove();
+		    context.pooled = false;
+		    return context;
+		}
+	    }
+	}
+	return new SubtractiveContext(this, numColorants, processColorants);
     }
 
+    /**
+     * @return number of process colorants for subtractive color space type
+     *         or -1 if color space is not subtractive
+     */
+    private static int processColorants(int type) {
+	if (type == ColorSpace.TYPE_CMYK) {
+	    return 4;
+	}
+	if (type == ColorSpace.TYPE_CMY) {
+	    return 3;
+	}
+	if (type >= ColorSpace.TYPE_2CLR && type <= ColorSpace.TYPE_FCLR) {
+	    return 0;
+	}
+	return -1;
+    }
+
+    /**
+     * Rasters with premultiplied alpha (e.g. TYPE_INT_ARGB_PRE) are composed
+     * directly if <code>srcColorModel</code> or <code>dstColorModel</code>
+     * says so, otherwise samples are assumed to be not premultiplied.
+     * <p>
+     * If destination color space is subtractive (CMYK, CMY or n-component)
+     * and source color space has same type and number of components, then
+     * colorants are composed by SubtractiveContext. Other sources (e.g. sRGB
+     * image drawn into CMYK image) are composed by generic context, as are
+     * all sources if color models are unknown.
+     */
     public CompositeContext createContext(ColorModel srcColorModel, ColorModel dstColorModel, RenderingHints hints) {
-	return new PDF_CompositeContext(this);
+	if (srcColorModel != null && dstColorModel != null) {
+	    ColorSpace cs = dstColorModel.getColorSpace();
+	    ColorSpace srcCs = srcColorModel.getColorSpace();
+	    int processColorants = processColorants(cs.getType());
+	    if (processColorants >= 0 && srcCs.getType() == cs.getType() && srcCs.getNumComponents() == cs.getNumComponents()) {
+		return createSubtractiveContext(cs.getNumComponents(), processColorants);
+	    }
+	}
+	boolean fixedPoint = hints != null && hints.get(KEY_ARITHMETIC) == VALUE_ARITHMETIC_FIXED;
+	boolean srcPremultiplied = srcColorModel != null && srcColorModel.isAlphaPremultiplied();
+	boolean dstPremultiplied = dstColorModel != null && dstColorModel.isAlphaPremultiplied();
+	PDF_CompositeContext context;
+	synchronized (contextPool) {
+	    context = contextPool.poll();
+	    if (context != null) {
+		context.pooled = false;
+	    }
+	}
+	if (context != null) {
+	    context.init(fixedPoint, srcPremultiplied, dstPremultiplied);
+	    return context;
+	}
+	return new PDF_CompositeContext(this, fixedPoint, srcPremultiplied, dstPremultiplied);
     }
 }
@@ -0,0 +1,297 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.CompositeContext;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Stack of layers which are composed over destination raster in one pass.
+ * Destination is processed tile by tile, all layers which cover a tile are
+ * applied while tile is in cache.
+ * <p>
+ * Every layer is composed with context of its IComposite, so result is same
+ * as composing layers one after another with
+ * <code>composite.createContext(colorModel, dstColorModel, hints)</code>:
+ * soft masks, fixed point and lookup arithmetic and premultiplied color
+ * models are handled in same way. Layers are applied in order in which they
+ * were added.
+ */
+public class LayerStack {
+
+    /**
+     * Default width and height of tiles.
+     */
+    public static final int DEFAULT_TILE_SIZE = 256;
+
+    private static class Layer {
+	final Raster raster;
+	final ColorModel colorModel;
+	final IComposite composite;
+	final int x;
+	final int y;
+
+	Layer(Raster raster, ColorModel colorModel, IComposite composite, int x, int y) {
+	    this.raster = raster;
+	    this.colorModel = colorModel;
+	    this.composite = composite;
+	    this.x = x;
+	    this.y = y;
+	}
+    }
+
+    /**
+     * Part of layer which covers destination.
+     */
+    private static class Region {
+	final Layer layer;
+	final Rectangle bounds;
+
+	Region(Layer layer, Rectangle bounds) {
+	    this.layer = layer;
+	    this.bounds = bounds;
+	}
+    }
+
+    private final List<Layer> layers = new ArrayList<Layer>();
+
+    private int tileSize = DEFAULT_TILE_SIZE;
+    private RenderingHints hints;
+
+    private int parallelThreshold = IComposite.DEFAULT_PARALLEL_THRESHOLD;
+    private ForkJoinPool forkJoinPool;
+
+    /**
+     * Add layer. Layer's upper left corner is placed at (<code>x</code>,
+     * <code>y</code>) relative to upper left corner of destination raster.
+     */
+    public void addLayer(Raster raster, IComposite composite, int x, int y) {
+	addLayer(raster, null, composite, x, y);
+    }
+
+    /**
+     * Add layer.
+     * 
+     * @param colorModel
+     *            color model of raster (may be null), passed to
+     *            IComposite.createContext()
+     */
+    public void addLayer(Raster raster, ColorModel colorModel, IComposite composite, int x, int y) {
+	if (raster == null || composite == null) {
+	    throw new NullPointerException();
+	}
+	layers.add(new Layer(raster, colorModel, composite, x, y));
+    }
+
+    public int getLayerCount() {
+	return layers.size();
+    }
+
+    public void clear() {
+	layers.clear();
+    }
+
+    public int getTileSize() {
+	return tileSize;
+    }
+
+    public void setTileSize(int tileSize) {
+	if (tileSize <= 0) {
+	    throw new IllegalArgumentException("tileSize=" + tileSize);
+	}
+	this.tileSize = tileSize;
+    }
+
+    public RenderingHints getRenderingHints() {
+	return hints;
+    }
+
+    /**
+     * Hints which are passed to IComposite.createContext(), e.g.
+     * IComposite.KEY_ARITHMETIC.
+     */
+    public void setRenderingHints(RenderingHints hints) {
+	this.hints = hints;
+    }
+
+    public int getParallelThreshold() {
+	return parallelThreshold;
+    }
+
+    /**
+     * @see IComposite#setParallelThreshold(int)
+     */
+    public void setParallelThreshold(int parallelThreshold) {
+	this.parallelThreshold = parallelThreshold;
+    }
+
+    public ForkJoinPool getForkJoinPool() {
+	return forkJoinPool;
+    }
+
+    /**
+     * @see IComposite#setForkJoinPool(ForkJoinPool)
+     */
+    public void setForkJoinPool(ForkJoinPool forkJoinPool) {
+	this.forkJoinPool = forkJoinPool;
+    }
+
+    /**
+     * Compose all layers over <code>dst</code>.
+     */
+    public void flatten(WritableRaster dst) {
+	flatten(dst, null);
+    }
+
+    /**
+     * Compose all layers over <code>dst</code>.
+     * 
+     * @param dstColorModel
+     *            color model of destination (may be null), passed to
+     *            IComposite.createContext()
+     */
+    public void flatten(WritableRaster dst, ColorModel dstColorModel) {
+	int width = dst.getWidth();
+	int height = dst.getHeight();
+	Rectangle bounds = new Rectangle(0, 0, width, height);
+
+	List<Region> regions = new ArrayList<Region>();
+	for (Layer layer : layers) {
+	    if (layer.composite.getAlpha() == 0) {
+		continue;
+	    }
+	    Rectangle r = bounds.intersection(new Rectangle(layer.x, layer.y, layer.raster.getWidth(), layer.raster.getHeight()));
+	    if (!r.isEmpty()) {
+		regions.add(new Region(layer, r));
+	    }
+	}
+	if (regions.isEmpty()) {
+	    return;
+	}
+	Region[] array = regions.toArray(new Region[regions.size()]);
+
+	int tileRows = (height + tileSize - 1) / tileSize;
+
+	ForkJoinPool pool = forkJoinPool;
+	if (pool == null) {
+	    pool = ForkJoinPool.commonPool();
+	}
+	int parallelism = pool.getParallelism();
+	if (parallelism > 1 && tileRows > 1 && (long) width * height >= parallelThreshold) {
+	    pool.invoke(new TileRows(array, dst, dstColorModel, 0, tileRows));
+	} else {
+	    flatten(array, dst, dstColorModel, 0, tileRows);
+	}
+    }
+
+    private class TileRows extends RecursiveAction {
+
+	private static final long serialVersionUID = -3587950532394818394L;
+
+	final Region[] regions;
+	final WritableRaster dst;
+	final ColorModel dstColorModel;
+	final int row0;
+	final int row1;
+
+	TileRows(Region[] regions, WritableRaster dst, ColorModel dstColorModel, int row0, int row1) {
+	    this.regions = regions;
+	    this.dst = dst;
+	    this.dstColorModel = dstColorModel;
+	    this.row0 = row0;
+	    this.row1 = row1;
+	}
+
+	@Override
+	protected void compute() {
+	    if (row1 - row0 <= 1) {
+		flatten(regions, dst, dstColorModel, row0, row1);
+	    } else {
+		int middle = (row0 + row1) >>> 1;
+		invokeAll(new TileRows(regions, dst, dstColorModel, row0, middle), new TileRows(regions, dst, dstColorModel, middle, row1));
+	    }
+	}
+    }
+
+    /**
+     * Compose tile rows from <code>row0</code> to <code>row1</code>. Every
+     * call uses its own contexts, so tile rows can be composed concurrently.
+     */
+    private void flatten(Region[] regions, WritableRaster dst, ColorModel dstColorModel, int row0, int row1) {
+	final int tileSize = this.tileSize;
+	final int minX = dst.getMinX();
+	final int minY = dst.getMinY();
+	final int width = dst.getWidth();
+	final int height = dst.getHeight();
+
+	CompositeContext[] contexts = new CompositeContext[regions.length];
+	Rectangle tile = new Rectangle();
+	try {
+	    for (int row = row0; row < row1; row++) {
+		int ty = row * tileSize;
+		for (int tx = 0; tx < width; tx += tileSize) {
+		    tile.setBounds(tx, ty, Math.min(tileSize, width - tx), Math.min(tileSize, height - ty));
+		    for (int i = 0; i < regions.length; i++) {
+			Rectangle r = regions[i].bounds.intersection(tile);
+			if (r.isEmpty()) {
+			    continue;
+			}
+			Layer layer = regions[i].layer;
+			if (contexts[i] == null) {
+			    contexts[i] = layer.composite.createContext(layer.colorModel, dstColorModel, hints);
+			}
+			Raster raster = layer.raster;
+			int sx = raster.getMinX() + r.x - layer.x;
+			int sy = raster.getMinY() + r.y - layer.y;
+			Raster src = raster.createChild(sx, sy, r.width, r.height, sx, sy, null);
+			// child keeps coordinates of destination, soft masks are placed same way
+			WritableRaster part = dst.createWritableChild(minX + r.x, minY + r.y, r.width, r.height, minX + r.x, minY + r.y, null);
+			contexts[i].compose(src, part, part);
+		    }
+		}
+	    }
+	} finally {
+	    for (CompositeContext context : contexts) {
+		if (context != null) {
+		    context.dispose();
+		}
+	    }
+	}
+    }
+}
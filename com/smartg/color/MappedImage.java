@@ -0,0 +1,415 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.CompositeContext;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 8 bit RGB or RGBA image stored in raw pixel file, which is composed tile by
+ * tile. Samples are interleaved (R, G, B[, A]), rows are stored top down
+ * without padding, alpha is not premultiplied.
+ * <p>
+ * Only tiles which are in use are kept in memory. Tiles are read and written
+ * row by row with positional FileChannel I/O, at most <code>maxTiles</code>
+ * tiles are cached, least recently used tile is written back to file when
+ * cache is full. So image size is limited by file system, not by heap or
+ * address space.
+ */
+public class MappedImage implements Closeable {
+
+    public static final int DEFAULT_TILE_SIZE = 512;
+    public static final int DEFAULT_MAX_TILES = 64;
+
+    private static class Tile {
+	final WritableRaster raster;
+	final int tileX;
+	final int tileY;
+	boolean dirty;
+
+	Tile(WritableRaster raster, int tileX, int tileY) {
+	    this.raster = raster;
+	    this.tileX = tileX;
+	    this.tileY = tileY;
+	}
+    }
+
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+
+    private final int width;
+    private final int height;
+    private final int bands;
+    private final int tileWidth;
+    private final int tileHeight;
+    private final int tilesAcross;
+    private final int tilesDown;
+    private final int[] bandOffsets;
+
+    private final LinkedHashMap<Long, Tile> tiles;
+
+    private int maxTiles;
+    private int loadedTiles;
+    private int writtenTiles;
+    // tiles were written since last force()
+    private boolean unforced;
+
+    public MappedImage(File file, int width, int height, int bands) throws IOException {
+	this(file, width, height, bands, DEFAULT_TILE_SIZE, DEFAULT_TILE_SIZE, DEFAULT_MAX_TILES);
+    }
+
+    /**
+     * Open (or create) raw pixel file. File is extended to
+     * <code>width * height * bands</code> bytes if it is shorter.
+     * 
+     * @param bands
+     *            3 (RGB) or 4 (RGBA)
+     */
+    public MappedImage(File file, int width, int height, int bands, int tileWidth, int tileHeight, int maxTiles) throws IOException {
+	if (width <= 0 || height <= 0 || tileWidth <= 0 || tileHeight <= 0 || maxTiles <= 0) {
+	    throw new IllegalArgumentException();
+	}
+	if (bands != 3 && bands != 4) {
+	    throw new IllegalArgumentException("Unsupported number of bands: " + bands);
+	}
+	if ((long) Math.min(tileWidth, width) * bands * Math.min(tileHeight, height) > Integer.MAX_VALUE) {
+	    throw new IllegalArgumentException("Tile is too big: " + tileWidth + "x" + tileHeight);
+	}
+	this.width = width;
+	this.height = height;
+	this.bands = bands;
+	this.tileWidth = Math.min(tileWidth, width);
+	this.tileHeight = Math.min(tileHeight, height);
+	this.maxTiles = maxTiles;
+	this.tilesAcross = (width + this.tileWidth - 1) / this.tileWidth;
+	this.tilesDown = (height + this.tileHeight - 1) / this.tileHeight;
+
+	bandOffsets = new int[bands];
+	for (int i = 0; i < bands; i++) {
+	    bandOffsets[i] = i;
+	}
+
+	this.file = new RandomAccessFile(file, "rw");
+	long length = (long) width * height * bands;
+	if (this.file.length() < length) {
+	    this.file.setLength(length);
+	}
+	channel = this.file.getChannel();
+	tiles = new LinkedHashMap<Long, Tile>(16, 0.75f, true) {
+	    private static final long serialVersionUID = 2894730187447829106L;
+
+	    @Override
+	    protected boolean removeEldestEntry(Map.Entry<Long, Tile> eldest) {
+		if (size() > MappedImage.this.maxTiles) {
+		    writeBack(eldest.getValue());
+		    return true;
+		}
+		return false;
+	    }
+	};
+    }
+
+    public int getWidth() {
+	return width;
+    }
+
+    public int getHeight() {
+	return height;
+    }
+
+    public int getNumBands() {
+	return bands;
+    }
+
+    public boolean hasAlpha() {
+	return bands == 4;
+    }
+
+    public int getTileWidth() {
+	return tileWidth;
+    }
+
+    public int getTileHeight() {
+	return tileHeight;
+    }
+
+    public int getNumXTiles() {
+	return tilesAcross;
+    }
+
+    public int getNumYTiles() {
+	return tilesDown;
+    }
+
+    public synchronized int getMaxTiles() {
+	return maxTiles;
+    }
+
+    /**
+     * Set maximum number of cached tiles. Tiles over limit are written back
+     * on next access.
+     */
+    public synchronized void setMaxTiles(int maxTiles) {
+	if (maxTiles <= 0) {
+	    throw new IllegalArgumentException();
+	}
+	this.maxTiles = maxTiles;
+    }
+
+    public synchronized int getCachedTileCount() {
+	return tiles.size();
+    }
+
+    /**
+     * Number of tiles read from file since image was opened.
+     */
+    public synchronized int getLoadedTileCount() {
+	return loadedTiles;
+    }
+
+    /**
+     * Number of tiles written to file since image was opened.
+     */
+    public synchronized int getWrittenTileCount() {
+	return writtenTiles;
+    }
+
+    /**
+     * Get tile at (<code>tileX</code>, <code>tileY</code>). Returned raster is
+     * located at (<code>tileX * tileWidth</code>,
+     * <code>tileY * tileHeight</code>) and is valid only until tile is evicted
+     * from cache. Use {@link #setDirty(int, int)} after raster was modified.
+     */
+    public synchronized WritableRaster getTile(int tileX, int tileY) {
+	return tile(tileX, tileY).raster;
+    }
+
+    /**
+     * Mark tile as modified, it will be written to file when evicted or
+     * flushed.
+     */
+    public synchronized void setDirty(int tileX, int tileY) {
+	Tile tile = tiles.get(key(tileX, tileY));
+	if (tile != null) {
+	    tile.dirty = true;
+	}
+    }
+
+    /**
+     * Compose <code>src</code> over this image. Upper left corner of
+     * <code>src</code> is placed at (<code>x</code>, <code>y</code>). Source
+     * samples are not premultiplied.
+     */
+    public synchronized void compose(Raster src, int x, int y, IComposite composite) {
+	Rectangle r = new Rectangle(0, 0, width, height).intersection(new Rectangle(x, y, src.getWidth(), src.getHeight()));
+	if (r.isEmpty()) {
+	    return;
+	}
+	int tx0 = r.x / tileWidth;
+	int ty0 = r.y / tileHeight;
+	int tx1 = (r.x + r.width - 1) / tileWidth;
+	int ty1 = (r.y + r.height - 1) / tileHeight;
+
+	CompositeContext context = composite.createContext(null, null, null);
+	try {
+	    for (int ty = ty0; ty <= ty1; ty++) {
+		for (int tx = tx0; tx <= tx1; tx++) {
+		    Tile tile = tile(tx, ty);
+		    WritableRaster raster = tile.raster;
+		    Rectangle tr = r.intersection(raster.getBounds());
+		    Raster srcChild = src.createChild(src.getMinX() + tr.x - x, src.getMinY() + tr.y - y, tr.width, tr.height, 0, 0, null);
+		    // child keeps coordinates of image, soft masks are placed same way
+		    WritableRaster dstChild = raster.createWritableChild(tr.x, tr.y, tr.width, tr.height, tr.x, tr.y, null);
+		    context.compose(srcChild, dstChild, dstChild);
+		    tile.dirty = true;
+		}
+	    }
+	} finally {
+	    context.dispose();
+	}
+    }
+
+    /**
+     * Compose <code>src</code> over this image tile by tile, so neither image
+     * has to fit in memory. Upper left corner of <code>src</code> is placed at
+     * (<code>x</code>, <code>y</code>).
+     */
+    public void compose(MappedImage src, int x, int y, IComposite composite) {
+	if (src == this) {
+	    throw new IllegalArgumentException("Can't compose image over itself");
+	}
+	// only tiles of src which overlap this image
+	Rectangle r = new Rectangle(0, 0, src.width, src.height).intersection(new Rectangle(-x, -y, width, height));
+	if (r.isEmpty()) {
+	    return;
+	}
+	int tx0 = r.x / src.tileWidth;
+	int ty0 = r.y / src.tileHeight;
+	int tx1 = (r.x + r.width - 1) / src.tileWidth;
+	int ty1 = (r.y + r.height - 1) / src.tileHeight;
+	for (int ty = ty0; ty <= ty1; ty++) {
+	    for (int tx = tx0; tx <= tx1; tx++) {
+		Raster raster = src.getTile(tx, ty);
+		compose(raster, x + raster.getMinX(), y + raster.getMinY(), composite);
+	    }
+	}
+    }
+
+    /**
+     * Write all modified tiles to file and force them to storage device.
+     */
+    public synchronized void flush() {
+	for (Tile tile : tiles.values()) {
+	    writeBack(tile);
+	}
+	if (unforced) {
+	    try {
+		channel.force(false);
+	    } catch (IOException ex) {
+		throw new RuntimeException(ex);
+	    }
+	    unforced = false;
+	}
+    }
+
+    /**
+     * Write modified tiles and drop all cached tiles.
+     */
+    public synchronized void clearCache() {
+	Iterator<Tile> it = tiles.values().iterator();
+	while (it.hasNext()) {
+	    writeBack(it.next());
+	    it.remove();
+	}
+    }
+
+    /**
+     * Flush and close file.
+     */
+    public synchronized void close() throws IOException {
+	flush();
+	tiles.clear();
+	channel.close();
+	file.close();
+    }
+
+    private static Long key(int tileX, int tileY) {
+	return Long.valueOf(((long) tileY << 32) | (tileX & 0xFFFFFFFFL));
+    }
+
+    private Tile tile(int tileX, int tileY) {
+	if (tileX < 0 || tileY < 0 || tileX >= tilesAcross || tileY >= tilesDown) {
+	    throw new IndexOutOfBoundsException("Tile (" + tileX + ", " + tileY + ")");
+	}
+	Long key = key(tileX, tileY);
+	Tile tile = tiles.get(key);
+	if (tile == null) {
+	    tile = load(tileX, tileY);
+	    tiles.put(key, tile);
+	}
+	return tile;
+    }
+
+    private Tile load(int tileX, int tileY) {
+	int x0 = tileX * tileWidth;
+	int y0 = tileY * tileHeight;
+	int w = Math.min(tileWidth, width - x0);
+	int h = Math.min(tileHeight, height - y0);
+	int stride = w * bands;
+	byte[] data = new byte[stride * h];
+	long rowLength = (long) width * bands;
+	long position = ((long) y0 * width + x0) * bands;
+
+	try {
+	    for (int i = 0; i < h; i++) {
+		ByteBuffer row = ByteBuffer.wrap(data, i * stride, stride);
+		long p = position + i * rowLength;
+		while (row.hasRemaining()) {
+		    int n = channel.read(row, p);
+		    if (n < 0) {
+			// file was truncated, missing samples stay 0
+			break;
+		    }
+		    p += n;
+		}
+	    }
+	} catch (IOException ex) {
+	    throw new RuntimeException(ex);
+	}
+	loadedTiles++;
+
+	DataBuffer db = new DataBufferByte(data, data.length);
+	WritableRaster raster = Raster.createInterleavedRaster(db, w, h, stride, bands, bandOffsets, new Point(x0, y0));
+	return new Tile(raster, tileX, tileY);
+    }
+
+    private void writeBack(Tile tile) {
+	if (!tile.dirty) {
+	    return;
+	}
+	WritableRaster raster = tile.raster;
+	int w = raster.getWidth();
+	int h = raster.getHeight();
+	int stride = w * bands;
+	byte[] data = ((DataBufferByte) raster.getDataBuffer()).getData();
+
+	long rowLength = (long) width * bands;
+	long position = ((long) raster.getMinY() * width + raster.getMinX()) * bands;
+	try {
+	    for (int i = 0; i < h; i++) {
+		ByteBuffer row = ByteBuffer.wrap(data, i * stride, stride);
+		long p = position + i * rowLength;
+		while (row.hasRemaining()) {
+		    p += channel.write(row, p);
+		}
+	    }
+	} catch (IOException ex) {
+	    throw new RuntimeException(ex);
+	}
+	tile.dirty = false;
+	unforced = true;
+	writtenTiles++;
+    }
+}
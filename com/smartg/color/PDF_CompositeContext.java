@@ -31,19 +31,190 @@
 package com.smartg.color;
 
 import java.awt.CompositeContext;
+import java.awt.Rectangle;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 class PDF_CompositeContext implements CompositeContext {
 
     IComposite composite;
+    boolean fixedPoint;
 
-    PDF_CompositeContext(IComposite composite) {
+    // samples of source or destination rasters are premultiplied by alpha
+    boolean srcPremultiplied;
+    boolean dstPremultiplied;
+
+    // scratch rows, one Buffers for every concurrently composed row band
+    private final ConcurrentLinkedQueue<Buffers> buffers = new ConcurrentLinkedQueue<Buffers>();
+
+    // accessors of last composed rasters
+    private RasterRows srcRows;
+    private RasterRows inRows;
+    private RasterRows outRows;
+
+    // soft mask rows of destination area, null if composite has no mask
+    SoftMask.Rows maskRows;
+
+    // set while context is in pool of IComposite
+    boolean pooled;
+
+    PDF_CompositeContext(IComposite composite, boolean fixedPoint) {
+	this(composite, fixedPoint, false, false);
+    }
+
+    PDF_CompositeContext(IComposite composite, boolean fixedPoint, boolean srcPremultiplied, boolean dstPremultiplied) {
 	this.composite = composite;
+	init(fixedPoint, srcPremultiplied, dstPremultiplied);
+    }
+
+    void init(boolean fixedPoint, boolean srcPremultiplied, boolean dstPremultiplied) {
+	this.fixedPoint = fixedPoint;
+	this.srcPremultiplied = srcPremultiplied;
+	this.dstPremultiplied = dstPremultiplied;
+    }
+
+    /**
+     * Scratch rows which are kept between compose() calls. Arrays are
+     * reallocated only if they are shorter than requested width.
+     */
+    static class Buffers {
+	private final float[][] floats = new float[12][0];
+	private final int[][] ints = new int[11][0];
+
+	float[][] floats(int width) {
+	    if (floats[0].length < width) {
+		for (int i = 0; i < floats.length; i++) {
+		    floats[i] = new float[width];
+		}
+	    }
+	    return floats;
+	}
+
+	int[][] ints(int width) {
+	    if (ints[0].length < width) {
+		for (int i = 0; i < ints.length; i++) {
+		    ints[i] = new int[width];
+		}
+	    }
+	    return ints;
+	}
+    }
+
+    Buffers takeBuffers() {
+	Buffers b = buffers.poll();
+	if (b == null) {
+	    b = new Buffers();
+	}
+	return b;
+    }
+
+    void releaseBuffers(Buffers b) {
+	buffers.offer(b);
+    }
+
+    private static RasterRows rows(Raster raster, RasterRows cached) {
+	if (cached != null && cached.raster == raster) {
+	    return cached;
+	}
+	return RasterRows.create(raster);
     }
 
     public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
-	compose2(src, dstIn, dstOut);
+	int width = Math.min(src.getWidth(), dstIn.getWidth());
+	int height = Math.min(src.getHeight(), dstIn.getHeight());
+
+	RasterRows srcRows = this.srcRows = rows(src, this.srcRows);
+	RasterRows inRows = this.inRows = rows(dstIn, this.inRows);
+	RasterRows outRows = this.outRows = dstOut == dstIn ? inRows : rows(dstOut, this.outRows);
+
+	SoftMask softMask = composite.getSoftMask();
+	maskRows = softMask == null ? null : softMask.rows(new Rectangle(dstIn.getMinX(), dstIn.getMinY(), width, height));
+
+	CompositeType fixedType = null;
+	if (fixedPoint && maskRows == null && srcRows.is8Bit && inRows.is8Bit && outRows.is8Bit && !srcPremultiplied && !dstPremultiplied) {
+	    CompositeType type = composite.getType();
+	    if (type == CompositeType.NORMAL || BlendTables.isSupported(type)) {
+		fixedType = type;
+	    }
+	}
+
+	ForkJoinPool pool = composite.getForkJoinPool();
+	if (pool == null) {
+	    pool = ForkJoinPool.commonPool();
+	}
+	long start = CompositeMetrics.ENABLED ? System.nanoTime() : 0;
+
+	int parallelism = pool.getParallelism();
+	if (parallelism > 1 && height > 1 && (long) width * height >= composite.getParallelThreshold()) {
+	    int bandHeight = Math.max(1, height / (parallelism * 4));
+	    pool.invoke(new RowBands(srcRows, inRows, outRows, width, 0, height, bandHeight, fixedType));
+	} else {
+	    composeRows(srcRows, inRows, outRows, width, 0, height, fixedType);
+	}
+
+	if (CompositeMetrics.ENABLED) {
+	    boolean fastPath = !(srcRows instanceof RasterRows.Generic || inRows instanceof RasterRows.Generic
+		    || outRows instanceof RasterRows.Generic);
+	    CompositeMetrics.record(composite.getType(), CompositeMetrics.layout(inRows), fastPath, (long) width * height,
+		    System.nanoTime() - start);
+	}
+    }
+
+    void composeRows(RasterRows srcRows, RasterRows inRows, RasterRows outRows, int width, int y0, int y1, CompositeType fixedType) {
+	Buffers buffers = takeBuffers();
+	try {
+	    if (fixedType != null) {
+		composeFixed(buffers, srcRows, inRows, outRows, width, y0, y1, fixedType);
+	    } else {
+		compose2(buffers, srcRows, inRows, outRows, width, y0, y1);
+	    }
+	} finally {
+	    releaseBuffers(buffers);
+	}
+    }
+
+    /**
+     * Splits rows from y0 to y1 into bands of at most bandHeight rows, every
+     * band is composed with its own scratch buffers.
+     */
+    class RowBands extends RecursiveAction {
+
+	private static final long serialVersionUID = 7407484128411425431L;
+
+	final RasterRows srcRows;
+	final RasterRows inRows;
+	final RasterRows outRows;
+	final int width;
+	final int y0;
+	final int y1;
+	final int bandHeight;
+	final CompositeType fixedType;
+
+	RowBands(RasterRows srcRows, RasterRows inRows, RasterRows outRows, int width, int y0, int y1, int bandHeight, CompositeType fixedType) {
+	    this.srcRows = srcRows;
+	    this.inRows = inRows;
+	    this.outRows = outRows;
+	    this.width = width;
+	    this.y0 = y0;
+	    this.y1 = y1;
+	    this.bandHeight = bandHeight;
+	    this.fixedType = fixedType;
+	}
+
+	@Override
+	protected void compute() {
+	    if (y1 - y0 <= bandHeight) {
+		composeRows(srcRows, inRows, outRows, width, y0, y1, fixedType);
+	    } else {
+		int middle = (y0 + y1) >>> 1;
+		invokeAll(new RowBands(srcRows, inRows, outRows, width, y0, middle, bandHeight, fixedType), new RowBands(srcRows, inRows, outRows,
+			width, middle, y1, bandHeight, fixedType));
+	    }
+	}
     }
 
     @SuppressWarnings("unused")
@@ -118,154 +289,497 @@ class PDF_CompositeContext implements CompositeContext {
 	}
     }
 
-    private void compose2(Raster src, Raster dstIn, WritableRaster dstOut) {
+    /**
+     * Pixels with source alpha 0 are left unchanged and pixels with opaque
+     * source in NORMAL mode are copied from source. Rows with transparent
+     * source are not blended and, if dstIn is dstOut, neither read nor
+     * written. Rows with opaque source in NORMAL mode are not blended and
+     * dstIn is not read.
+     */
+    private void compose2(Buffers buffers, RasterRows srcRows, RasterRows inRows, RasterRows outRows, int width, int y0, int y1) {
+
+	final SoftMask.Rows maskRows = this.maskRows;
+	// mask is multiplied into source alpha
+	boolean srcHasAlpha = srcRows.hasAlpha || maskRows != null;
+	boolean dstHasAlpha = inRows.hasAlpha;
+
+	float[][] buf = buffers.floats(width);
+
+	float[] srcSamples0 = buf[0];
+	float[] srcSamples1 = buf[1];
+	float[] srcSamples2 = buf[2];
+	float[] srcSamples3 = buf[3];
+
+	float[] inSamples0 = buf[4];
+	float[] inSamples1 = buf[5];
+	float[] inSamples2 = buf[6];
+	float[] inSamples3 = buf[7];
+
+	// Composer writes blend result here, it is replaced by composite result
+	float[] outSamples0 = buf[8];
+	float[] outSamples1 = buf[9];
+	float[] outSamples2 = buf[10];
+	float[] outSamples3 = buf[11];
+
+	if (!srcRows.hasAlpha) {
+	    // never overwritten by getRow
+	    Arrays.fill(srcSamples3, 0, width, 1f);
+	}
+	if (!dstHasAlpha) {
+	    Arrays.fill(inSamples3, 0, width, 1f);
+	}
 
-	final float denom = 1f / 255f;
+	final Composer composer = rowComposer(composite.composer, srcRows.is8Bit && inRows.is8Bit && outRows.is8Bit);
+	final float alpha = composite.getAlpha();
+	final boolean normal = composite.getType() == CompositeType.NORMAL;
+
+	// straight source is needed for blending, except of NORMAL into premultiplied destination
+	final boolean unpremultiplySrc = srcPremultiplied && srcRows.hasAlpha && (maskRows != null || !(normal && dstPremultiplied));
+	final boolean premultiplied = dstPremultiplied && dstHasAlpha;
+
+	long skipped = 0;
+	long copied = 0;
+
+	for (int y = y0; y < y1; y++) {
+	    srcRows.getRow(y, width, srcSamples0, srcSamples1, srcSamples2, srcSamples3);
+	    if (maskRows != null) {
+		if (unpremultiplySrc) {
+		    unpremultiply(srcSamples0, srcSamples1, srcSamples2, srcSamples3, srcSamples0, srcSamples1, srcSamples2, width);
+		} else if (!srcRows.hasAlpha) {
+		    Arrays.fill(srcSamples3, 0, width, 1f);
+		}
+		// out rows are not used yet
+		maskRows.apply(y, width, srcSamples3, outSamples0, outSamples1, outSamples2, outSamples3);
+	    }
 
-	int width = Math.min(src.getWidth(), dstIn.getWidth());
-	int height = Math.min(src.getHeight(), dstIn.getHeight());
+	    int transparent = 0;
+	    int opaque = 0;
+	    if (srcHasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    float as = srcSamples3[x] * alpha;
+		    if (as == 0) {
+			transparent++;
+		    } else if (as == 1) {
+			opaque++;
+		    }
+		}
+	    } else if (alpha == 0) {
+		transparent = width;
+	    } else if (alpha == 1) {
+		opaque = width;
+	    }
 
-	boolean srcHasAlpha = src.getNumBands() == 4;
-	boolean dstHasAlpha = dstIn.getNumBands() == 4;
-	boolean outHasAlpha = dstOut.getNumBands() == 4;
+	    if (transparent == width) {
+		skipped += width;
+		if (outRows != inRows) {
+		    inRows.getRow(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+		    System.arraycopy(inSamples0, 0, outSamples0, 0, width);
+		    System.arraycopy(inSamples1, 0, outSamples1, 0, width);
+		    System.arraycopy(inSamples2, 0, outSamples2, 0, width);
+		    System.arraycopy(inSamples3, 0, outSamples3, 0, width);
+		    outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+		}
+		continue;
+	    }
+	    if (normal && opaque == width) {
+		copied += width;
+		System.arraycopy(srcSamples0, 0, outSamples0, 0, width);
+		System.arraycopy(srcSamples1, 0, outSamples1, 0, width);
+		System.arraycopy(srcSamples2, 0, outSamples2, 0, width);
+		Arrays.fill(outSamples3, 0, width, 1f);
+		outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+		continue;
+	    }
 
-	boolean srcIsGray = src.getNumBands() == 1;
-	boolean dstIsGray = dstIn.getNumBands() == 1;
-	boolean outIsGray = dstOut.getNumBands() == 1;
+	    inRows.getRow(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
 
-	float[] result = new float[4];
+	    if (unpremultiplySrc && maskRows == null) {
+		unpremultiply(srcSamples0, srcSamples1, srcSamples2, srcSamples3, srcSamples0, srcSamples1, srcSamples2, width);
+	    }
 
-	// there are no alpha processing by Composer
-	int[] srcPixel = new int[3];
-	int[] dstPixel = new int[3];
+	    if (premultiplied) {
+		composePremultiplied(composer, srcSamples0, srcSamples1, srcSamples2, srcSamples3, inSamples0, inSamples1, inSamples2, inSamples3,
+			outSamples0, outSamples1, outSamples2, outSamples3, srcHasAlpha, !unpremultiplySrc && srcPremultiplied, width);
+	    } else {
+		// there are no alpha processing by Composer
+		composer.composeRow(srcSamples0, srcSamples1, srcSamples2, inSamples0, inSamples1, inSamples2, outSamples0, outSamples1, outSamples2,
+			0, width);
+		blendRow(srcSamples0, srcSamples1, srcSamples2, srcSamples3, inSamples0, inSamples1, inSamples2, inSamples3, outSamples0,
+			outSamples1, outSamples2, outSamples3, srcHasAlpha, dstHasAlpha, alpha, width);
+	    }
 
-	// int[] srcPixels = new int[width];
-	// int[] dstPixels = new int[width];
+	    if (transparent > 0 || (normal && opaque > 0)) {
+		// loop above has no branches, special pixels are replaced here
+		replaceSpecial(srcSamples0, srcSamples1, srcSamples2, srcSamples3, inSamples0, inSamples1, inSamples2, inSamples3, outSamples0,
+			outSamples1, outSamples2, outSamples3, alpha, normal, width);
+		skipped += transparent;
+		if (normal) {
+		    copied += opaque;
+		}
+	    }
+	    outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+	}
+	composite.countPixels(skipped, copied);
+    }
 
-	float[] srcSamples0 = new float[width];
-	float[] srcSamples1 = new float[width];
-	float[] srcSamples2 = new float[width];
-	float[] srcSamples3 = new float[width];
+    /**
+     * Lookup tables have 8 bit precision, so for rasters with more bits per
+     * sample the wrapped Composer is used.
+     */
+    static Composer rowComposer(Composer composer, boolean is8Bit) {
+	if (!is8Bit && composer instanceof Composer.Lookup) {
+	    return ((Composer.Lookup) composer).composer;
+	}
+	return composer;
+    }
 
-	float[] inSamples0 = new float[width];
-	float[] inSamples1 = new float[width];
-	float[] inSamples2 = new float[width];
-	float[] inSamples3 = new float[width];
+    /**
+     * Alpha blending of straight samples, blend result is passed in out
+     * arrays.
+     */
+    static void blendRow(float[] srcSamples0, float[] srcSamples1, float[] srcSamples2, float[] srcSamples3, float[] inSamples0,
+	    float[] inSamples1, float[] inSamples2, float[] inSamples3, float[] outSamples0, float[] outSamples1, float[] outSamples2,
+	    float[] outSamples3, boolean srcHasAlpha, boolean dstHasAlpha, float alpha, int width) {
+	for (int x = 0; x < width; x++) {
+	    float as = alpha;
+	    float ab = 1;
+	    if (srcHasAlpha) {
+		as = srcSamples3[x] * alpha;
+	    }
+	    if (dstHasAlpha) {
+		ab = inSamples3[x];
+	    }
 
-	float[] outSamples0 = new float[width];
-	float[] outSamples1 = new float[width];
-	float[] outSamples2 = new float[width];
-	float[] outSamples3 = new float[width];
+	    float ar = ab + as - (ab * as);
+	    float f = as / ar;
+	    float sb = 1 - ab;
 
-	final Composer composer = composite.composer;
-	final float alpha = composite.getAlpha();
+	    outSamples0[x] = (1 - f) * inSamples0[x] + f * (sb * srcSamples0[x] + ab * outSamples0[x]);
+	    outSamples1[x] = (1 - f) * inSamples1[x] + f * (sb * srcSamples1[x] + ab * outSamples1[x]);
+	    outSamples2[x] = (1 - f) * inSamples2[x] + f * (sb * srcSamples2[x] + ab * outSamples2[x]);
+	    outSamples3[x] = ar;
+	}
+    }
 
-	int[] dest = new int[3];
+    /**
+     * Compositing into premultiplied destination:
+     * <p>
+     * co' = (1 - as) * cb' + as * (1 - ab) * cs + as * ab * B(cb, cs)
+     * <p>
+     * There is no division by result alpha. Backdrop is unpremultiplied only
+     * as input of blend function, NORMAL mode needs no division at all.
+     * 
+     * @param srcPremultiplied
+     *            true if source samples are premultiplied (NORMAL mode only)
+     */
+    private void composePremultiplied(Composer composer, float[] srcSamples0, float[] srcSamples1, float[] srcSamples2, float[] srcSamples3, float[] inSamples0,
+	    float[] inSamples1, float[] inSamples2, float[] inSamples3, float[] outSamples0, float[] outSamples1, float[] outSamples2,
+	    float[] outSamples3, boolean srcHasAlpha, boolean srcPremultiplied, int width) {
 
-	for (int y = 0; y < height; y++) {
-	    // src.getDataElements(0, y, width, 1, srcPixels);
-	    src.getSamples(0, y, width, 1, 0, srcSamples0);
-	    if (!srcIsGray) {
-		src.getSamples(0, y, width, 1, 1, srcSamples1);
-		src.getSamples(0, y, width, 1, 2, srcSamples2);
+	final float alpha = composite.getAlpha();
+
+	if (composite.getType() == CompositeType.NORMAL) {
+	    for (int x = 0; x < width; x++) {
+		float as = alpha;
 		if (srcHasAlpha) {
-		    src.getSamples(0, y, width, 1, 3, srcSamples3);
+		    as = srcSamples3[x] * alpha;
 		}
-	    } else {
-		srcSamples1 = srcSamples0;
-		srcSamples2 = srcSamples0;
+		float ab = inSamples3[x];
+		// cs * as, or cs' * alpha for premultiplied source
+		float k = srcPremultiplied ? alpha : as;
+		float fb = 1 - as;
+
+		float ar = ab + as - (ab * as);
+
+		// premultiplied samples may not exceed alpha
+		outSamples0[x] = Math.min(fb * inSamples0[x] + k * srcSamples0[x], ar);
+		outSamples1[x] = Math.min(fb * inSamples1[x] + k * srcSamples1[x], ar);
+		outSamples2[x] = Math.min(fb * inSamples2[x] + k * srcSamples2[x], ar);
+		outSamples3[x] = ar;
 	    }
+	    return;
+	}
 
-	    // dstIn.getDataElements(0, y, width, 1, dstPixels);
-	    dstIn.getSamples(0, y, width, 1, 0, inSamples0);
-	    if (!dstIsGray) {
-		dstIn.getSamples(0, y, width, 1, 1, inSamples1);
-		dstIn.getSamples(0, y, width, 1, 2, inSamples2);
-		if (dstHasAlpha) {
-		    dstIn.getSamples(0, y, width, 1, 3, inSamples3);
-		}
-	    } else {
-		inSamples1 = inSamples0;
-		inSamples2 = inSamples0;
+	// straight backdrop is input of blend function, result is written to same arrays
+	unpremultiply(inSamples0, inSamples1, inSamples2, inSamples3, outSamples0, outSamples1, outSamples2, width);
+	composer.composeRow(srcSamples0, srcSamples1, srcSamples2, outSamples0, outSamples1, outSamples2, outSamples0, outSamples1,
+		outSamples2, 0, width);
+
+	for (int x = 0; x < width; x++) {
+	    float as = alpha;
+	    if (srcHasAlpha) {
+		as = srcSamples3[x] * alpha;
 	    }
+	    float ab = inSamples3[x];
 
-	    for (int x = 0; x < width; x++) {
+	    float fb = 1 - as;
+	    float fs = as * (1 - ab);
+	    float fr = as * ab;
 
-		// int s_pixel = srcPixels[x];
-		srcPixel[0] = (int) srcSamples0[x];
-		srcPixel[1] = (int) srcSamples1[x];
-		srcPixel[2] = (int) srcSamples2[x];
+	    float ar = ab + as - (ab * as);
 
-		// int d_pixel = dstPixels[x];
-		dstPixel[0] = (int) inSamples0[x];
-		dstPixel[1] = (int) inSamples1[x];
+	    outSamples0[x] = Math.min(fb * inSamples0[x] + fs * srcSamples0[x] + fr * outSamples0[x], ar);
+	    outSamples1[x] = Math.min(fb * inSamples1[x] + fs * srcSamples1[x] + fr * outSamples1[x], ar);
+	    outSamples2[x] = Math.min(fb * inSamples2[x] + fs * srcSamples2[x] + fr * outSamples2[x], ar);
+	    outSamples3[x] = ar;
+	}
+    }
 
-		dstPixel[2] = (int) inSamples2[x];
+    /**
+     * Divide premultiplied samples by alpha, samples with alpha 0 are set to
+     * 0. Results are clamped to 1, invalid pixels (color greater than alpha)
+     * would index blend tables out of bounds otherwise.
+     */
+    static void unpremultiply(float[] c0, float[] c1, float[] c2, float[] alpha, float[] out0, float[] out1, float[] out2, int width) {
+	for (int x = 0; x < width; x++) {
+	    float a = alpha[x];
+	    float k = a == 0 ? 0 : 1 / a;
+	    out0[x] = Math.min(c0[x] * k, 1f);
+	    out1[x] = Math.min(c1[x] * k, 1f);
+	    out2[x] = Math.min(c2[x] * k, 1f);
+	}
+    }
 
-		float as = alpha;
-		float ab = 1;
-		if (srcHasAlpha) {
-		    as = srcSamples3[x] * alpha * denom;
-		}
-		if (dstHasAlpha) {
-		    ab = inSamples3[x] * denom;
-		}
+    /**
+     * Pixels with transparent source are replaced by dstIn, pixels with opaque
+     * source in NORMAL mode by source.
+     */
+    static void replaceSpecial(float[] srcSamples0, float[] srcSamples1, float[] srcSamples2, float[] srcSamples3, float[] inSamples0,
+	    float[] inSamples1, float[] inSamples2, float[] inSamples3, float[] outSamples0, float[] outSamples1, float[] outSamples2,
+	    float[] outSamples3, float alpha, boolean normal, int width) {
+	for (int x = 0; x < width; x++) {
+	    float as = srcSamples3[x] * alpha;
+	    if (as == 0) {
+		outSamples0[x] = inSamples0[x];
+		outSamples1[x] = inSamples1[x];
+		outSamples2[x] = inSamples2[x];
+		outSamples3[x] = inSamples3[x];
+	    } else if (normal && as == 1) {
+		outSamples0[x] = srcSamples0[x];
+		outSamples1[x] = srcSamples1[x];
+		outSamples2[x] = srcSamples2[x];
+		outSamples3[x] = 1;
+	    }
+	}
+    }
 
-		float ar = ab + as - (ab * as);
+    /**
+     * Copy rows from <code>y0</code> to <code>y1</code> of dstIn to dstOut.
+     */
+    void copyRows(Buffers buffers, RasterRows inRows, RasterRows outRows, int width, int y0, int y1) {
+	if (outRows == inRows) {
+	    return;
+	}
+	float[][] buf = buffers.floats(width);
+	float[] c0 = buf[0];
+	float[] c1 = buf[1];
+	float[] c2 = buf[2];
+	float[] alpha = buf[3];
+	for (int y = y0; y < y1; y++) {
+	    inRows.getRow(y, width, c0, c1, c2, alpha);
+	    if (!inRows.hasAlpha) {
+		// may be overwritten by setRow
+		Arrays.fill(alpha, 0, width, 1f);
+	    }
+	    outRows.setRow(y, width, c0, c1, c2, alpha);
+	}
+    }
 
-		composer.compose(srcPixel, dstPixel, result);
+    /**
+     * Integer only compositing of 8 bit rasters. Supported are NORMAL and all
+     * types supported by BlendTables. All divisions by 255 are rounded.
+     */
+    private void composeFixed(Buffers buffers, RasterRows srcRows, RasterRows inRows, RasterRows outRows, int width, int y0, int y1, CompositeType type) {
+	boolean srcHasAlpha = srcRows.hasAlpha;
+	boolean dstHasAlpha = inRows.hasAlpha;
+
+	int[][] buf = buffers.ints(width);
+
+	int[] srcSamples0 = buf[0];
+	int[] srcSamples1 = buf[1];
+	int[] srcSamples2 = buf[2];
+	int[] srcSamples3 = buf[3];
+
+	int[] inSamples0 = buf[4];
+	int[] inSamples1 = buf[5];
+	int[] inSamples2 = buf[6];
+	int[] inSamples3 = buf[7];
+
+	int[] resSamples0 = srcSamples0;
+	int[] resSamples1 = srcSamples1;
+	int[] resSamples2 = srcSamples2;
+
+	byte[] table = null;
+	if (type != CompositeType.NORMAL) {
+	    resSamples0 = buf[8];
+	    resSamples1 = buf[9];
+	    resSamples2 = buf[10];
+	    table = BlendTables.getTable(type, composite.composer);
+	}
 
-		for (int i = 0; i < 3; i++) {
-		    int d = dstPixel[i];
-		    int s = srcPixel[i];
-		    float r = result[i];
+	if (!dstHasAlpha) {
+	    // never overwritten by getRow8, skipped pixels are written back as opaque
+	    Arrays.fill(inSamples3, 0, width, 255);
+	}
 
-		    if (d < 0) {
-			d = 0;
-		    }
-		    if (s < 0) {
-			s = 0;
-		    }
-		    if (d > 255) {
-			d = 255;
-		    }
-		    if (s > 255) {
-			s = 255;
-		    }
-		    float cb = d * denom;
-		    float cs = s * denom;
+	final int alpha = Math.round(composite.getAlpha() * 255);
+	final boolean normal = type == CompositeType.NORMAL;
 
-		    float f = as / ar;
-		    float cr = (1 - f) * cb + f * ((1 - ab) * cs + ab * r);
+	long skipped = 0;
+	long copied = 0;
 
-		    dest[i] = (int) (cr * 255);
+	for (int y = y0; y < y1; y++) {
+	    srcRows.getRow8(y, width, srcSamples0, srcSamples1, srcSamples2, srcSamples3);
+	    inRows.getRow8(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+
+	    if (table != null) {
+		blendRow8(type, table, srcSamples0, inSamples0, resSamples0, width);
+		blendRow8(type, table, srcSamples1, inSamples1, resSamples1, width);
+		blendRow8(type, table, srcSamples2, inSamples2, resSamples2, width);
+	    }
+
+	    for (int x = 0; x < width; x++) {
+		// source alpha with 16 bit precision (255 * 255 is 1.0)
+		int as = alpha * 255;
+		int ab = 255;
+		if (srcHasAlpha) {
+		    as = srcSamples3[x] * alpha;
+		}
+		if (dstHasAlpha) {
+		    ab = inSamples3[x];
 		}
 
-		outSamples0[x] = dest[0];
-		outSamples1[x] = dest[1];
-		outSamples2[x] = dest[2];
-		if (outHasAlpha) {
-		    outSamples3[x] = ar * 255f;
+		if (as == 0) {
+		    // backdrop is not changed
+		    skipped++;
+		    continue;
+		}
+		if (normal && as == 255 * 255) {
+		    inSamples0[x] = srcSamples0[x];
+		    inSamples1[x] = srcSamples1[x];
+		    inSamples2[x] = srcSamples2[x];
+		    inSamples3[x] = 255;
+		    copied++;
+		    continue;
 		}
 
-		// dstPixels[x] = ((int) (ar * 255) & 0xFF) << 24
-		// | (dest[0] & 0xFF) << 16 | (dest[1] & 0xFF) << 8
-		// | (dest[2] & 0xFF);
-	    }
-	    // dstOut.setDataElements(0, y, width, 1, dstPixels);
-
-	    dstOut.setSamples(0, y, width, 1, 0, outSamples0);
-	    if (!outIsGray) {
-		dstOut.setSamples(0, y, width, 1, 1, outSamples1);
-		dstOut.setSamples(0, y, width, 1, 2, outSamples2);
-		if (outHasAlpha) {
-		    dstOut.setSamples(0, y, width, 1, 3, outSamples3);
+		int cs0 = srcSamples0[x];
+		int cs1 = srcSamples1[x];
+		int cs2 = srcSamples2[x];
+		int cb0 = inSamples0[x];
+		int cb1 = inSamples1[x];
+		int cb2 = inSamples2[x];
+
+		int r0 = resSamples0[x];
+		int r1 = resSamples1[x];
+		int r2 = resSamples2[x];
+
+		if (ab == 255) {
+		    // ar == 1, cr = (1 - as) * cb + as * r
+		    int as8 = div255(as);
+		    int fb = 255 - as8;
+		    inSamples0[x] = div255(fb * cb0 + as8 * r0);
+		    inSamples1[x] = div255(fb * cb1 + as8 * r1);
+		    inSamples2[x] = div255(fb * cb2 + as8 * r2);
+		    inSamples3[x] = 255;
+		} else {
+		    int ab16 = ab * 255;
+		    int ar = ab16 + as - (int) ((ab16 * (long) as + 32512) / 65025);
+		    if (ar == 0) {
+			inSamples0[x] = 0;
+			inSamples1[x] = 0;
+			inSamples2[x] = 0;
+		    } else {
+			// cr = ((ar - as) * cb + as * (1 - ab) * cs + as * ab * r) / ar
+			long fb = (ar - as) * 255L;
+			long fs = as * (255L - ab);
+			long fr = as * (long) ab;
+			long d = ar * 255L;
+			long h = d >> 1;
+			inSamples0[x] = (int) ((fb * cb0 + fs * cs0 + fr * r0 + h) / d);
+			inSamples1[x] = (int) ((fb * cb1 + fs * cs1 + fr * r1 + h) / d);
+			inSamples2[x] = (int) ((fb * cb2 + fs * cs2 + fr * r2 + h) / d);
+		    }
+		    inSamples3[x] = div255(ar);
 		}
 	    }
+	    outRows.setRow8(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
 	}
+	composite.countPixels(skipped, copied);
     }
 
+    /**
+     * Blend one channel of 8 bit row. Simple modes are computed directly,
+     * other are taken from table.
+     */
+    private static void blendRow8(CompositeType type, byte[] table, int[] cs, int[] cb, int[] res, int width) {
+	switch (type) {
+	case MULTIPLY:
+	    for (int x = 0; x < width; x++) {
+		res[x] = div255(cb[x] * cs[x]);
+	    }
+	    break;
+	case SCREEN:
+	    for (int x = 0; x < width; x++) {
+		res[x] = cb[x] + cs[x] - div255(cb[x] * cs[x]);
+	    }
+	    break;
+	case DARKEN:
+	    for (int x = 0; x < width; x++) {
+		res[x] = Math.min(cb[x], cs[x]);
+	    }
+	    break;
+	case LIGHTEN:
+	    for (int x = 0; x < width; x++) {
+		res[x] = Math.max(cb[x], cs[x]);
+	    }
+	    break;
+	case DIFFERENCE:
+	    for (int x = 0; x < width; x++) {
+		res[x] = Math.abs(cb[x] - cs[x]);
+	    }
+	    break;
+	case SUB:
+	    for (int x = 0; x < width; x++) {
+		res[x] = Math.max(0, cb[x] - cs[x]);
+	    }
+	    break;
+	default:
+	    for (int x = 0; x < width; x++) {
+		res[x] = table[(cb[x] << 8) | cs[x]] & 0xFF;
+	    }
+	    break;
+	}
+    }
+
+    /**
+     * Rounded division by 255, exact for 0 &lt;= v &lt;= 255 * 255.
+     */
+    static int div255(int v) {
+	v += 128;
+	return (v + (v >> 8)) >> 8;
+    }
+
+    /**
+     * Context is returned to pool of IComposite (if there is free place),
+     * otherwise scratch buffers are released.
+     */
     public void dispose() {
+	srcRows = null;
+	inRows = null;
+	outRows = null;
+	if (!composite.releaseContext(this)) {
+	    buffers.clear();
+	}
+    }
 
+    /**
+     * Release scratch buffers and rasters.
+     */
+    void release() {
+	srcRows = null;
+	inRows = null;
+	outRows = null;
+	buffers.clear();
     }
 }
@@ -0,0 +1,55 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+/**
+ * Plane kernels of separable blend modes, arguments are same as of
+ * Composer.Separable.composePlane(). Implemented by optional backend which
+ * uses jdk.incubator.vector (see Composer.isVectorized()).
+ */
+interface PlaneKernels {
+
+    void multiply(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void screen(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void darken(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void lighten(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void difference(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void exclusion(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void add(float[] src, float[] dst, float[] res, int offset, int length);
+
+    void subtract(float[] src, float[] dst, float[] res, int offset, int length);
+}
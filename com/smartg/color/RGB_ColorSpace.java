@@ -39,6 +39,22 @@ import java.util.logging.Logger;
  */
 public class RGB_ColorSpace {
 
+    /**
+     * How xyz2rgb (and lab2rgb, luv2rgb) apply transfer function.
+     */
+    public static enum TransferMode {
+	/**
+	 * Transfer function is computed with Math.pow (default).
+	 */
+	EXACT,
+	/**
+	 * Transfer function is interpolated from table which is shared by all
+	 * color spaces with same curve. Values near 0 and outside of range from 0
+	 * to 1 are computed exactly.
+	 */
+	TABLE;
+    }
+
     public static enum RGB_CS_Type {
 	ADOBE_RGB, APPLE_RGB, BEST_RGB, BETA_RGB, BRUCE_RGB, CIE_RGB, COLOR_MATCH_RGB, DON_RGB4, ECI_RGB, EKTA_SPACE_PS5, NTSC_RGB, PAL_SECAM_RGB, PRO_PHOTO, SMPTE_C_RGB, S_RGB, WIDE_GAMUT, OPTI_RGB;
     }
@@ -67,6 +83,9 @@ public class RGB_ColorSpace {
 
     boolean is_sRGB;
 
+    private final TransferMode transferMode;
+    private final float[] encodeTable;
+
     public static RGB_ColorSpace get(RGB_CS_Type type) {
 	switch (type) {
 	case ADOBE_RGB:
@@ -170,6 +189,9 @@ public class RGB_ColorSpace {
 
 	u0 = 4 * refWhite.Xn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
 	v0 = 9 * refWhite.Yn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
+
+	transferMode = TransferMode.EXACT;
+	encodeTable = null;
     }
 
     private RGB_ColorSpace(String type, ColorMatrix primaries, ColorMatrix fromXYZ, ColorMatrix toXYZ, ReferenceWhite wp) {
@@ -193,6 +215,9 @@ public class RGB_ColorSpace {
 
 	u0 = 4 * refWhite.Xn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
 	v0 = 9 * refWhite.Yn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
+
+	transferMode = TransferMode.EXACT;
+	encodeTable = null;
     }
 
     protected RGB_ColorSpace(RGB_ColorSpace rgbColor, int[] bps) {
@@ -221,6 +246,40 @@ public class RGB_ColorSpace {
 	}
 	u0 = rgbColor.u0;
 	v0 = rgbColor.v0;
+
+	transferMode = TransferMode.EXACT;
+	encodeTable = null;
+    }
+
+    private RGB_ColorSpace(RGB_ColorSpace rgbColor, TransferMode transferMode) {
+	this.type = rgbColor.type;
+	this.gamma = rgbColor.gamma;
+	this.igamma = rgbColor.igamma;
+	this.primaries = rgbColor.primaries;
+	this.fromXYZ = rgbColor.fromXYZ;
+	this.toXYZ = rgbColor.toXYZ;
+	this.bitsPerSample = rgbColor.bitsPerSample.clone();
+
+	maxR = rgbColor.maxR;
+	maxG = rgbColor.maxG;
+	maxB = rgbColor.maxB;
+
+	refWhite = rgbColor.refWhite;
+
+	Yr = rgbColor.Yr;
+	Yg = rgbColor.Yg;
+	Yb = rgbColor.Yb;
+
+	u0 = rgbColor.u0;
+	v0 = rgbColor.v0;
+	is_sRGB = rgbColor.is_sRGB;
+
+	this.transferMode = transferMode;
+	if (transferMode == TransferMode.TABLE) {
+	    encodeTable = GammaTables.getEncodeTable(igamma, is_sRGB);
+	} else {
+	    encodeTable = null;
+	}
     }
 
     private RGB_ColorSpace(int[] bps) {
@@ -252,6 +311,9 @@ public class RGB_ColorSpace {
 
 	u0 = 4 * refWhite.Xn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
 	v0 = 9 * refWhite.Yn / (refWhite.Xn + 15 * refWhite.Yn + 3 * refWhite.Zn);
+
+	transferMode = TransferMode.EXACT;
+	encodeTable = null;
     }
 
     public RGB_ColorSpace(String type, ColorMatrix toXYZ, ColorMatrix fromXYZ, float gamma, int[] bps) {
@@ -409,43 +471,55 @@ public class RGB_ColorSpace {
 	float Yg = (float) (fromXYZ.Ry * X + fromXYZ.Gy * Y + fromXYZ.By * Z);
 	float Yb = (float) (fromXYZ.Rz * X + fromXYZ.Gz * Y + fromXYZ.Bz * Z);
 
-	if (!is_sRGB) {
-	    dest[0] = (float) Math.pow(Yr, igamma);
-	    dest[1] = (float) Math.pow(Yg, igamma);
-	    dest[2] = (float) Math.pow(Yb, igamma);
-	} else {
-	    if (Yr < 0.0031308) {
-		dest[0] = Yr * 12.92f;
-	    } else {
-		dest[0] = (float) (1.055f * Math.pow(Yr, igamma) - 0.055f);
-	    }
-	    if (Yg < 0.0031308) {
-		dest[1] = Yg * 12.92f;
-	    } else {
-		dest[1] = (float) (1.055f * Math.pow(Yg, igamma) - 0.055f);
-	    }
-	    if (Yb < 0.0031308) {
-		dest[2] = Yb * 12.92f;
-	    } else {
-		dest[2] = (float) (1.055f * Math.pow(Yb, igamma) - 0.055f);
-	    }
-	}
+	dest[0] = encode(Yr) * 255f;
+	dest[1] = encode(Yg) * 255f;
+	dest[2] = encode(Yb) * 255f;
+    }
+
+    public TransferMode getTransferMode() {
+	return transferMode;
+    }
 
-	for (int i = 0; i < dest.length; i++) {
-	    dest[i] *= 255f;
+    /**
+     * Returns a copy of this color space which uses given TransferMode.
+     * TransferMode.TABLE avoids Math.pow in xyz2rgb, lab2rgb and luv2rgb,
+     * results differ from exact values by less than 0.001 (0 - 255 scale).
+     */
+    public RGB_ColorSpace withTransferMode(TransferMode transferMode) {
+	if (transferMode == null) {
+	    throw new NullPointerException();
 	}
+	if (transferMode == this.transferMode) {
+	    return this;
+	}
+	return new RGB_ColorSpace(this, transferMode);
     }
 
-    // void xyz2rgb(float X, float Y, float Z, int[] dest) {
-    // Matrix fromXYZ = this.fromXYZ;
-    // float Yr = (float) (fromXYZ.Rx * X + fromXYZ.Gx * Y + fromXYZ.Bx * Z);
-    // float Yg = (float) (fromXYZ.Ry * X + fromXYZ.Gy * Y + fromXYZ.By * Z);
-    // float Yb = (float) (fromXYZ.Rz * X + fromXYZ.Gz * Y + fromXYZ.Bz * Z);
-    //
-    // dest[0] = this.Yr.inverse[Math.round(Yr * maxR)];
-    // dest[1] = this.Yg.inverse[Math.round(Yg * maxG)];
-    // dest[2] = this.Yb.inverse[Math.round(Yb * maxB)];
-    // }
+    private float encode(float y) {
+	return encode(encodeTable, y);
+    }
+
+    /**
+     * Apply gamma (or sRGB transfer function) to linear value.
+     * 
+     * @param table
+     *            encode table or null
+     */
+    private float encode(float[] table, float y) {
+	if (table != null && y >= GammaTables.ENCODE_TABLE_MIN && y <= 1) {
+	    float f = y * GammaTables.ENCODE_TABLE_SIZE;
+	    int i = (int) f;
+	    float t = table[i];
+	    return t + (f - i) * (table[i + 1] - t);
+	}
+	if (!is_sRGB) {
+	    return (float) Math.pow(y, igamma);
+	}
+	if (y < 0.0031308) {
+	    return y * 12.92f;
+	}
+	return (float) (1.055f * Math.pow(y, igamma) - 0.055f);
+    }
 
     public final void rgb2xyz(int r, int g, int b, float[] dest) {
 	ColorMatrix toXYZ = this.toXYZ;
@@ -578,8 +652,8 @@ public class RGB_ColorSpace {
 	double Z = X * a + b;
 
 	dest[0] = (float) X;
-	dest[0] = (float) Y;
-	dest[0] = (float) Z;
+	dest[1] = (float) Y;
+	dest[2] = (float) Z;
     }
 
     public final void xyz2luv(float X, float Y, float Z, float[] dest) {
@@ -604,8 +678,8 @@ public class RGB_ColorSpace {
 	double v = 13 * L * (vs - vsr);
 
 	dest[0] = (float) L;
-	dest[0] = (float) u;
-	dest[0] = (float) v;
+	dest[1] = (float) u;
+	dest[2] = (float) v;
     }
 
     public final void luv2rgb(float L, float u, float v, float[] dest) {
@@ -685,6 +759,410 @@ public class RGB_ColorSpace {
 	luv2rgb(dest[0], dest[1], dest[2], dest);
     }
 
+    /*
+     * Bulk conversions. Pixels are packed ARGB ints (8 bit per sample) or
+     * planar float arrays, one array per component. Output arrays may be
+     * same as input arrays, nothing is allocated. Methods with
+     * scanline parameters convert rectangular areas, offset is index of first
+     * pixel and scanline is distance between rows.
+     */
+
+    /**
+     * Convert <code>length</code> packed ARGB pixels starting at
+     * <code>offset</code> to XYZ, alpha is ignored.
+     */
+    public final void rgb2xyz(int[] argb, int offset, int length, float[] X, float[] Y, float[] Z, int dstOffset) {
+	final float[] fr = this.Yr.forward;
+	final float[] fg = this.Yg.forward;
+	final float[] fb = this.Yb.forward;
+	final int maxR = this.maxR;
+	final int maxG = this.maxG;
+	final int maxB = this.maxB;
+	final float rx = (float) toXYZ.Rx;
+	final float gx = (float) toXYZ.Gx;
+	final float bx = (float) toXYZ.Bx;
+	final float ry = (float) toXYZ.Ry;
+	final float gy = (float) toXYZ.Gy;
+	final float by = (float) toXYZ.By;
+	final float rz = (float) toXYZ.Rz;
+	final float gz = (float) toXYZ.Gz;
+	final float bz = (float) toXYZ.Bz;
+
+	for (int i = 0; i < length; i++) {
+	    int p = argb[offset + i];
+	    float r0;
+	    float g0;
+	    float b0;
+	    if (maxR == 255 && maxG == 255 && maxB == 255) {
+		r0 = fr[(p >> 16) & 0xFF];
+		g0 = fg[(p >> 8) & 0xFF];
+		b0 = fb[p & 0xFF];
+	    } else {
+		r0 = fr[(((p >> 16) & 0xFF) * maxR + 127) / 255];
+		g0 = fg[(((p >> 8) & 0xFF) * maxG + 127) / 255];
+		b0 = fb[((p & 0xFF) * maxB + 127) / 255];
+	    }
+	    int j = dstOffset + i;
+	    X[j] = rx * r0 + gx * g0 + bx * b0;
+	    Y[j] = ry * r0 + gy * g0 + by * b0;
+	    Z[j] = rz * r0 + gz * g0 + bz * b0;
+	}
+    }
+
+    /**
+     * Convert planar samples (from 0 to 2^bitsPerSample - 1) to XYZ.
+     */
+    public final void rgb2xyz(int[] r, int[] g, int[] b, int offset, int length, float[] X, float[] Y, float[] Z, int dstOffset) {
+	final float[] fr = this.Yr.forward;
+	final float[] fg = this.Yg.forward;
+	final float[] fb = this.Yb.forward;
+	final float rx = (float) toXYZ.Rx;
+	final float gx = (float) toXYZ.Gx;
+	final float bx = (float) toXYZ.Bx;
+	final float ry = (float) toXYZ.Ry;
+	final float gy = (float) toXYZ.Gy;
+	final float by = (float) toXYZ.By;
+	final float rz = (float) toXYZ.Rz;
+	final float gz = (float) toXYZ.Gz;
+	final float bz = (float) toXYZ.Bz;
+
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float r0 = fr[r[k]];
+	    float g0 = fg[g[k]];
+	    float b0 = fb[b[k]];
+	    int j = dstOffset + i;
+	    X[j] = rx * r0 + gx * g0 + bx * b0;
+	    Y[j] = ry * r0 + gy * g0 + by * b0;
+	    Z[j] = rz * r0 + gz * g0 + bz * b0;
+	}
+    }
+
+    /**
+     * Convert XYZ to planar RGB values from 0 to 255 (not clamped), same as
+     * xyz2rgb(float, float, float, float[]).
+     */
+    public final void xyz2rgb(float[] X, float[] Y, float[] Z, int offset, int length, float[] r, float[] g, float[] b, int dstOffset) {
+	final float xr = (float) fromXYZ.Rx;
+	final float yr = (float) fromXYZ.Gx;
+	final float zr = (float) fromXYZ.Bx;
+	final float xg = (float) fromXYZ.Ry;
+	final float yg = (float) fromXYZ.Gy;
+	final float zg = (float) fromXYZ.By;
+	final float xb = (float) fromXYZ.Rz;
+	final float yb = (float) fromXYZ.Gz;
+	final float zb = (float) fromXYZ.Bz;
+	final float[] table = this.encodeTable;
+
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float x = X[k];
+	    float y = Y[k];
+	    float z = Z[k];
+	    int j = dstOffset + i;
+	    r[j] = encode(table, xr * x + yr * y + zr * z) * 255f;
+	    g[j] = encode(table, xg * x + yg * y + zg * z) * 255f;
+	    b[j] = encode(table, xb * x + yb * y + zb * z) * 255f;
+	}
+    }
+
+    /**
+     * Convert XYZ to packed opaque ARGB pixels, samples are rounded and
+     * clamped.
+     */
+    public final void xyz2rgb(float[] X, float[] Y, float[] Z, int offset, int length, int[] argb, int dstOffset) {
+	final float xr = (float) fromXYZ.Rx;
+	final float yr = (float) fromXYZ.Gx;
+	final float zr = (float) fromXYZ.Bx;
+	final float xg = (float) fromXYZ.Ry;
+	final float yg = (float) fromXYZ.Gy;
+	final float zg = (float) fromXYZ.By;
+	final float xb = (float) fromXYZ.Rz;
+	final float yb = (float) fromXYZ.Gz;
+	final float zb = (float) fromXYZ.Bz;
+	final float[] table = this.encodeTable;
+
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float x = X[k];
+	    float y = Y[k];
+	    float z = Z[k];
+	    int r = clamp(encode(table, xr * x + yr * y + zr * z));
+	    int g = clamp(encode(table, xg * x + yg * y + zg * z));
+	    int b = clamp(encode(table, xb * x + yb * y + zb * z));
+	    argb[dstOffset + i] = 0xFF000000 | (r << 16) | (g << 8) | b;
+	}
+    }
+
+    private static int clamp(float f) {
+	int v = (int) (f * 255 + 0.5f);
+	if (v < 0) {
+	    return 0;
+	}
+	if (v > 255) {
+	    return 255;
+	}
+	return v;
+    }
+
+    /**
+     * Lab function f(t)
+     */
+    private static double labF(double t) {
+	if (t > ETA) {
+	    return Math.cbrt(t);
+	}
+	return (KAPPA * t + 16.0) / 116.0;
+    }
+
+    public final void xyz2lab(float[] X, float[] Y, float[] Z, int offset, int length, float[] L, float[] a, float[] b, int dstOffset) {
+	final double ixn = 1 / refWhite.Xn;
+	final double iyn = 1 / refWhite.Yn;
+	final double izn = 1 / refWhite.Zn;
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    double fx = labF(X[k] * ixn);
+	    double fy = labF(Y[k] * iyn);
+	    double fz = labF(Z[k] * izn);
+	    int j = dstOffset + i;
+	    L[j] = (float) (116 * fy - 16);
+	    a[j] = (float) (500 * (fx - fy));
+	    b[j] = (float) (200 * (fy - fz));
+	}
+    }
+
+    public final void lab2xyz(float[] L, float[] a, float[] b, int offset, int length, float[] X, float[] Y, float[] Z, int dstOffset) {
+	final double xn = refWhite.Xn;
+	final double yn = refWhite.Yn;
+	final double zn = refWhite.Zn;
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float l = L[k];
+	    double fy = (l + 16) / 116;
+	    double fx = (a[k] / 500) + fy;
+	    double fz = fy - (b[k] / 200);
+
+	    double yr = (l > 8.0 ? fy * fy * fy : l / KAPPA);
+	    double xr = fx * fx * fx;
+	    if (xr <= ETA) {
+		xr = (116 * fx - 16) / KAPPA;
+	    }
+	    double zr = fz * fz * fz;
+	    if (zr <= ETA) {
+		zr = (116 * fz - 16) / KAPPA;
+	    }
+	    int j = dstOffset + i;
+	    X[j] = (float) (xr * xn);
+	    Y[j] = (float) (yr * yn);
+	    Z[j] = (float) (zr * zn);
+	}
+    }
+
+    public final void xyz2luv(float[] X, float[] Y, float[] Z, int offset, int length, float[] L, float[] u, float[] v, int dstOffset) {
+	final double iyn = 1 / refWhite.Yn;
+	final double mr = refWhite.Xn + 15.0 * refWhite.Yn + 3.0 * refWhite.Zn;
+	final double usr = 4 * refWhite.Xn / mr;
+	final double vsr = 9 * refWhite.Yn / mr;
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float x = X[k];
+	    float y = Y[k];
+	    float z = Z[k];
+	    double yr = y * iyn;
+	    double l = yr > ETA ? 116 * Math.cbrt(yr) - 16 : KAPPA * yr;
+	    float m = x + 15.0f * y + 3.0f * z;
+	    int j = dstOffset + i;
+	    L[j] = (float) l;
+	    if (m == 0) {
+		// black
+		u[j] = 0;
+		v[j] = 0;
+	    } else {
+		u[j] = (float) (13 * l * (4 * x / m - usr));
+		v[j] = (float) (13 * l * (9 * y / m - vsr));
+	    }
+	}
+    }
+
+    public final void luv2xyz(float[] L, float[] u, float[] v, int offset, int length, float[] X, float[] Y, float[] Z, int dstOffset) {
+	final double u0 = this.u0;
+	final double v0 = this.v0;
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float l = L[k];
+	    int j = dstOffset + i;
+	    if (l <= 0) {
+		X[j] = 0;
+		Y[j] = 0;
+		Z[j] = 0;
+		continue;
+	    }
+	    double y;
+	    if (l > ke) {
+		double t = (l + 16) / 116;
+		y = t * t * t;
+	    } else {
+		y = l / KAPPA;
+	    }
+	    double a = (52 * l / (u[k] + 13 * l * u0) - 1) / 3;
+	    double b = -5.0 * y;
+	    double d = y * (39 * l / (v[k] + 13 * l * v0) - 5);
+	    double x = (d - b) / (a + 1.0 / 3.0);
+	    X[j] = (float) x;
+	    Y[j] = (float) y;
+	    Z[j] = (float) (x * a + b);
+	}
+    }
+
+    public final void rgb2lab(int[] argb, int offset, int length, float[] L, float[] a, float[] b, int dstOffset) {
+	rgb2xyz(argb, offset, length, L, a, b, dstOffset);
+	xyz2lab(L, a, b, dstOffset, length, L, a, b, dstOffset);
+    }
+
+    public final void rgb2luv(int[] argb, int offset, int length, float[] L, float[] u, float[] v, int dstOffset) {
+	rgb2xyz(argb, offset, length, L, u, v, dstOffset);
+	xyz2luv(L, u, v, dstOffset, length, L, u, v, dstOffset);
+    }
+
+    /**
+     * Convert Lab to packed opaque ARGB pixels, same as lab2xyz followed by
+     * xyz2rgb. Input arrays are not changed.
+     */
+    public final void lab2rgb(float[] L, float[] a, float[] b, int offset, int length, int[] argb, int dstOffset) {
+	final float xr = (float) fromXYZ.Rx;
+	final float yr = (float) fromXYZ.Gx;
+	final float zr = (float) fromXYZ.Bx;
+	final float xg = (float) fromXYZ.Ry;
+	final float yg = (float) fromXYZ.Gy;
+	final float zg = (float) fromXYZ.By;
+	final float xb = (float) fromXYZ.Rz;
+	final float yb = (float) fromXYZ.Gz;
+	final float zb = (float) fromXYZ.Bz;
+	final float[] table = this.encodeTable;
+	final double xn = refWhite.Xn;
+	final double yn = refWhite.Yn;
+	final double zn = refWhite.Zn;
+
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float l = L[k];
+	    double fy = (l + 16) / 116;
+	    double fx = (a[k] / 500) + fy;
+	    double fz = fy - (b[k] / 200);
+
+	    double ry = (l > 8.0 ? fy * fy * fy : l / KAPPA);
+	    double rx = fx * fx * fx;
+	    if (rx <= ETA) {
+		rx = (116 * fx - 16) / KAPPA;
+	    }
+	    double rz = fz * fz * fz;
+	    if (rz <= ETA) {
+		rz = (116 * fz - 16) / KAPPA;
+	    }
+	    float x = (float) (rx * xn);
+	    float y = (float) (ry * yn);
+	    float z = (float) (rz * zn);
+
+	    int r0 = clamp(encode(table, xr * x + yr * y + zr * z));
+	    int g0 = clamp(encode(table, xg * x + yg * y + zg * z));
+	    int b0 = clamp(encode(table, xb * x + yb * y + zb * z));
+	    argb[dstOffset + i] = 0xFF000000 | (r0 << 16) | (g0 << 8) | b0;
+	}
+    }
+
+    /**
+     * Convert Luv to packed opaque ARGB pixels, same as luv2xyz followed by
+     * xyz2rgb. Input arrays are not changed.
+     */
+    public final void luv2rgb(float[] L, float[] u, float[] v, int offset, int length, int[] argb, int dstOffset) {
+	final float xr = (float) fromXYZ.Rx;
+	final float yr = (float) fromXYZ.Gx;
+	final float zr = (float) fromXYZ.Bx;
+	final float xg = (float) fromXYZ.Ry;
+	final float yg = (float) fromXYZ.Gy;
+	final float zg = (float) fromXYZ.By;
+	final float xb = (float) fromXYZ.Rz;
+	final float yb = (float) fromXYZ.Gz;
+	final float zb = (float) fromXYZ.Bz;
+	final float[] table = this.encodeTable;
+	final double u0 = this.u0;
+	final double v0 = this.v0;
+
+	for (int i = 0; i < length; i++) {
+	    int k = offset + i;
+	    float l = L[k];
+	    if (l <= 0) {
+		argb[dstOffset + i] = 0xFF000000;
+		continue;
+	    }
+	    double ty;
+	    if (l > ke) {
+		double t = (l + 16) / 116;
+		ty = t * t * t;
+	    } else {
+		ty = l / KAPPA;
+	    }
+	    double ta = (52 * l / (u[k] + 13 * l * u0) - 1) / 3;
+	    double tb = -5.0 * ty;
+	    double td = ty * (39 * l / (v[k] + 13 * l * v0) - 5);
+	    double tx = (td - tb) / (ta + 1.0 / 3.0);
+	    float x = (float) tx;
+	    float y = (float) ty;
+	    float z = (float) (tx * ta + tb);
+
+	    int r0 = clamp(encode(table, xr * x + yr * y + zr * z));
+	    int g0 = clamp(encode(table, xg * x + yg * y + zg * z));
+	    int b0 = clamp(encode(table, xb * x + yb * y + zb * z));
+	    argb[dstOffset + i] = 0xFF000000 | (r0 << 16) | (g0 << 8) | b0;
+	}
+    }
+
+    /**
+     * Convert <code>width</code> x <code>height</code> packed ARGB pixels to
+     * XYZ.
+     */
+    public final void rgb2xyz(int[] argb, int offset, int scanline, int width, int height, float[] X, float[] Y, float[] Z, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    rgb2xyz(argb, offset + y * scanline, width, X, Y, Z, dstOffset + y * dstScanline);
+	}
+    }
+
+    public final void rgb2lab(int[] argb, int offset, int scanline, int width, int height, float[] L, float[] a, float[] b, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    rgb2lab(argb, offset + y * scanline, width, L, a, b, dstOffset + y * dstScanline);
+	}
+    }
+
+    public final void rgb2luv(int[] argb, int offset, int scanline, int width, int height, float[] L, float[] u, float[] v, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    rgb2luv(argb, offset + y * scanline, width, L, u, v, dstOffset + y * dstScanline);
+	}
+    }
+
+    public final void xyz2rgb(float[] X, float[] Y, float[] Z, int offset, int scanline, int width, int height, int[] argb, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    xyz2rgb(X, Y, Z, offset + y * scanline, width, argb, dstOffset + y * dstScanline);
+	}
+    }
+
+    public final void lab2rgb(float[] L, float[] a, float[] b, int offset, int scanline, int width, int height, int[] argb, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    lab2rgb(L, a, b, offset + y * scanline, width, argb, dstOffset + y * dstScanline);
+	}
+    }
+
+    public final void luv2rgb(float[] L, float[] u, float[] v, int offset, int scanline, int width, int height, int[] argb, int dstOffset,
+	    int dstScanline) {
+	for (int y = 0; y < height; y++) {
+	    luv2rgb(L, u, v, offset + y * scanline, width, argb, dstOffset + y * dstScanline);
+	}
+    }
+
     public static void main(String[] args) {
 	RGB_ColorSpace rgb = RGB_ColorSpace.createSRGB(8);
 
@@ -0,0 +1,935 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
+
+/**
+ * Row oriented access to raster samples. Rows are read into (and written
+ * from) one float array per band, sample values are normalized to range from
+ * 0 to 1. Gray rasters are expanded to three equal bands on read and only band
+ * 0 is written back.
+ * <p>
+ * Known raster layouts are accessed directly through their data arrays,
+ * everything else goes through Raster.getSamples / WritableRaster.setSamples.
+ */
+abstract class RasterRows {
+
+    static final float denom = 1f / 255f;
+    static final float denom16 = 1f / 65535f;
+
+    final Raster raster;
+    final int numBands;
+    final boolean hasAlpha;
+    final boolean isGray;
+    final boolean is8Bit;
+
+    RasterRows(Raster raster) {
+	this.raster = raster;
+	this.numBands = raster.getNumBands();
+	this.hasAlpha = numBands == 4;
+	this.isGray = numBands == 1;
+
+	int[] sampleSize = raster.getSampleModel().getSampleSize();
+	boolean is8Bit = true;
+	for (int i = 0; i < sampleSize.length; i++) {
+	    is8Bit &= sampleSize[i] == 8;
+	}
+	this.is8Bit = is8Bit;
+    }
+
+    static RasterRows create(Raster raster) {
+	SampleModel sm = raster.getSampleModel();
+	DataBuffer db = raster.getDataBuffer();
+	if (sm instanceof SinglePixelPackedSampleModel && db instanceof DataBufferInt && db.getNumBanks() == 1) {
+	    if (IntPacked.isSupported((SinglePixelPackedSampleModel) sm)) {
+		return new IntPacked(raster);
+	    }
+	}
+	if (sm instanceof ComponentSampleModel && db instanceof DataBufferByte && db.getNumBanks() == 1) {
+	    if (ByteInterleaved.isSupported((ComponentSampleModel) sm)) {
+		return new ByteInterleaved(raster);
+	    }
+	}
+	if (sm instanceof ComponentSampleModel && db instanceof DataBufferUShort && db.getNumBanks() == 1) {
+	    if (UShortInterleaved.isSupported((ComponentSampleModel) sm)) {
+		return new UShortInterleaved(raster);
+	    }
+	}
+	if (sm instanceof ComponentSampleModel && db instanceof DataBufferFloat && db.getNumBanks() == 1) {
+	    if (FloatInterleaved.isSupported((ComponentSampleModel) sm)) {
+		return new FloatInterleaved(raster);
+	    }
+	}
+	return new Generic(raster);
+    }
+
+    /**
+     * Read row <code>y</code> (relative to raster origin).
+     */
+    abstract void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha);
+
+    /**
+     * Write row <code>y</code> (relative to raster origin). Raster must be
+     * writable. Passed arrays may be overwritten.
+     */
+    abstract void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha);
+
+    /**
+     * Read row <code>y</code> (relative to raster origin) as 8 bit values.
+     * Lossless only if is8Bit is true, other samples are rounded to 8 bit.
+     */
+    abstract void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha);
+
+    /**
+     * Write row <code>y</code> (relative to raster origin) as 8 bit values,
+     * which are scaled to sample size of raster.
+     */
+    abstract void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha);
+
+    /**
+     * 1, 3 or 4 bands, all in first bank.
+     */
+    static boolean isInterleaved(ComponentSampleModel sm) {
+	int numBands = sm.getNumBands();
+	if (numBands != 1 && numBands != 3 && numBands != 4) {
+	    return false;
+	}
+	int[] bankIndices = sm.getBankIndices();
+	for (int i = 0; i < numBands; i++) {
+	    if (bankIndices[i] != 0) {
+		return false;
+	    }
+	}
+	return true;
+    }
+
+    /**
+     * Round normalized value to 8 bit. Rounding (not truncation) makes read
+     * and write of unchanged sample lossless.
+     */
+    static int clamp(float f) {
+	int i = (int) (f * 255 + 0.5f);
+	if (i < 0) {
+	    return 0;
+	}
+	if (i > 255) {
+	    return 255;
+	}
+	return i;
+    }
+
+    /**
+     * Round normalized value to 16 bit.
+     */
+    static int clamp16(float f) {
+	int i = (int) (f * 65535 + 0.5f);
+	if (i < 0) {
+	    return 0;
+	}
+	if (i > 65535) {
+	    return 65535;
+	}
+	return i;
+    }
+
+    /**
+     * Any raster, samples of every band are normalized by maximal value of
+     * its sample size (e.g. 31 for 5 bit red of TYPE_USHORT_565_RGB).
+     */
+    static class Generic extends RasterRows {
+
+	final int x0;
+	final int y0;
+
+	// maximal sample value and its reciprocal for every band
+	final float[] max;
+	final float[] norm;
+
+	// float and double samples are used as they are
+	final boolean isFloat;
+
+	Generic(Raster raster) {
+	    super(raster);
+	    x0 = raster.getMinX();
+	    y0 = raster.getMinY();
+
+	    int dataType = raster.getSampleModel().getDataType();
+	    isFloat = dataType == DataBuffer.TYPE_FLOAT || dataType == DataBuffer.TYPE_DOUBLE;
+
+	    int[] sampleSize = raster.getSampleModel().getSampleSize();
+	    max = new float[4];
+	    norm = new float[4];
+	    for (int i = 0; i < 4; i++) {
+		int size = sampleSize[Math.min(i, sampleSize.length - 1)];
+		max[i] = isFloat ? 1 : (1L << size) - 1;
+		norm[i] = 1f / max[i];
+	    }
+	}
+
+	@Override
+	void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final float norm0 = norm[0];
+	    raster.getSamples(x0, y0 + y, width, 1, 0, c0);
+	    if (!isGray) {
+		final float norm1 = norm[1];
+		final float norm2 = norm[2];
+		raster.getSamples(x0, y0 + y, width, 1, 1, c1);
+		raster.getSamples(x0, y0 + y, width, 1, 2, c2);
+		if (hasAlpha) {
+		    raster.getSamples(x0, y0 + y, width, 1, 3, alpha);
+		}
+		for (int x = 0; x < width; x++) {
+		    c0[x] *= norm0;
+		    c1[x] *= norm1;
+		    c2[x] *= norm2;
+		}
+		if (hasAlpha) {
+		    final float norm3 = norm[3];
+		    for (int x = 0; x < width; x++) {
+			alpha[x] *= norm3;
+		    }
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    float v = c0[x] * norm0;
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		}
+	    }
+	}
+
+	@Override
+	void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    WritableRaster wr = (WritableRaster) raster;
+	    toSamples(c0, width, max[0]);
+	    wr.setSamples(x0, y0 + y, width, 1, 0, c0);
+	    if (!isGray) {
+		toSamples(c1, width, max[1]);
+		toSamples(c2, width, max[2]);
+		wr.setSamples(x0, y0 + y, width, 1, 1, c1);
+		wr.setSamples(x0, y0 + y, width, 1, 2, c2);
+		if (hasAlpha) {
+		    toSamples(alpha, width, max[3]);
+		    wr.setSamples(x0, y0 + y, width, 1, 3, alpha);
+		}
+	    }
+	}
+
+	@Override
+	void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    raster.getSamples(x0, y0 + y, width, 1, 0, c0);
+	    if (!isGray) {
+		raster.getSamples(x0, y0 + y, width, 1, 1, c1);
+		raster.getSamples(x0, y0 + y, width, 1, 2, c2);
+		if (hasAlpha) {
+		    raster.getSamples(x0, y0 + y, width, 1, 3, alpha);
+		}
+	    } else {
+		System.arraycopy(c0, 0, c1, 0, width);
+		System.arraycopy(c0, 0, c2, 0, width);
+	    }
+	}
+
+	@Override
+	void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    WritableRaster wr = (WritableRaster) raster;
+	    wr.setSamples(x0, y0 + y, width, 1, 0, c0);
+	    if (!isGray) {
+		wr.setSamples(x0, y0 + y, width, 1, 1, c1);
+		wr.setSamples(x0, y0 + y, width, 1, 2, c2);
+		if (hasAlpha) {
+		    wr.setSamples(x0, y0 + y, width, 1, 3, alpha);
+		}
+	    }
+	}
+
+	private void toSamples(float[] c, int width, float max) {
+	    if (isFloat) {
+		return;
+	    }
+	    for (int x = 0; x < width; x++) {
+		c[x] = (int) (c[x] * max + 0.5f);
+	    }
+	}
+    }
+
+    /**
+     * Rasters with one int per pixel and 8 bit per band, e.g.
+     * TYPE_INT_RGB, TYPE_INT_ARGB, TYPE_INT_ARGB_PRE, TYPE_INT_BGR.
+     */
+    static class IntPacked extends RasterRows {
+
+	final int[] data;
+	final int offset;
+	final int scanlineStride;
+
+	final int shift0, shift1, shift2, shift3;
+
+	IntPacked(Raster raster) {
+	    super(raster);
+	    SinglePixelPackedSampleModel sm = (SinglePixelPackedSampleModel) raster.getSampleModel();
+	    int[] offsets = sm.getBitOffsets();
+
+	    data = ((DataBufferInt) raster.getDataBuffer()).getData();
+	    scanlineStride = sm.getScanlineStride();
+	    int x = raster.getMinX() - raster.getSampleModelTranslateX();
+	    int y = raster.getMinY() - raster.getSampleModelTranslateY();
+	    offset = sm.getOffset(x, y) + raster.getDataBuffer().getOffset();
+
+	    shift0 = offsets[0];
+	    shift1 = offsets[1];
+	    shift2 = offsets[2];
+	    shift3 = hasAlpha ? offsets[3] : 0;
+	}
+
+	static boolean isSupported(SinglePixelPackedSampleModel sm) {
+	    int numBands = sm.getNumBands();
+	    if (numBands != 3 && numBands != 4) {
+		return false;
+	    }
+	    int[] masks = sm.getBitMasks();
+	    int[] offsets = sm.getBitOffsets();
+	    for (int i = 0; i < numBands; i++) {
+		if (masks[i] != 0xFF << offsets[i]) {
+		    return false;
+		}
+	    }
+	    return true;
+	}
+
+	@Override
+	void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final int[] data = this.data;
+	    final int shift0 = this.shift0;
+	    final int shift1 = this.shift1;
+	    final int shift2 = this.shift2;
+	    final int shift3 = this.shift3;
+
+	    int index = offset + y * scanlineStride;
+	    if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    int p = data[index++];
+		    c0[x] = ((p >>> shift0) & 0xFF) * denom;
+		    c1[x] = ((p >>> shift1) & 0xFF) * denom;
+		    c2[x] = ((p >>> shift2) & 0xFF) * denom;
+		    alpha[x] = ((p >>> shift3) & 0xFF) * denom;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    int p = data[index++];
+		    c0[x] = ((p >>> shift0) & 0xFF) * denom;
+		    c1[x] = ((p >>> shift1) & 0xFF) * denom;
+		    c2[x] = ((p >>> shift2) & 0xFF) * denom;
+		}
+	    }
+	}
+
+	@Override
+	void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final int[] data = this.data;
+	    final int shift0 = this.shift0;
+	    final int shift1 = this.shift1;
+	    final int shift2 = this.shift2;
+	    final int shift3 = this.shift3;
+
+	    int index = offset + y * scanlineStride;
+	    if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index++] = clamp(c0[x]) << shift0 | clamp(c1[x]) << shift1 | clamp(c2[x]) << shift2 | clamp(alpha[x]) << shift3;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index++] = clamp(c0[x]) << shift0 | clamp(c1[x]) << shift1 | clamp(c2[x]) << shift2;
+		}
+	    }
+	}
+
+	@Override
+	void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final int[] data = this.data;
+	    final int shift0 = this.shift0;
+	    final int shift1 = this.shift1;
+	    final int shift2 = this.shift2;
+	    final int shift3 = this.shift3;
+
+	    int index = offset + y * scanlineStride;
+	    if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    int p = data[index++];
+		    c0[x] = (p >>> shift0) & 0xFF;
+		    c1[x] = (p >>> shift1) & 0xFF;
+		    c2[x] = (p >>> shift2) & 0xFF;
+		    alpha[x] = (p >>> shift3) & 0xFF;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    int p = data[index++];
+		    c0[x] = (p >>> shift0) & 0xFF;
+		    c1[x] = (p >>> shift1) & 0xFF;
+		    c2[x] = (p >>> shift2) & 0xFF;
+		}
+	    }
+	}
+
+	@Override
+	void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final int[] data = this.data;
+	    final int shift0 = this.shift0;
+	    final int shift1 = this.shift1;
+	    final int shift2 = this.shift2;
+	    final int shift3 = this.shift3;
+
+	    int index = offset + y * scanlineStride;
+	    if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index++] = c0[x] << shift0 | c1[x] << shift1 | c2[x] << shift2 | alpha[x] << shift3;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index++] = c0[x] << shift0 | c1[x] << shift1 | c2[x] << shift2;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Rasters with all bands interleaved in one byte array, e.g.
+     * TYPE_3BYTE_BGR, TYPE_4BYTE_ABGR, TYPE_BYTE_GRAY.
+     */
+    static class ByteInterleaved extends RasterRows {
+
+	final byte[] data;
+	final int offset;
+	final int scanlineStride;
+	final int pixelStride;
+
+	final int offset0, offset1, offset2, offset3;
+
+	ByteInterleaved(Raster raster) {
+	    super(raster);
+	    ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+	    int[] bandOffsets = sm.getBandOffsets();
+
+	    data = ((DataBufferByte) raster.getDataBuffer()).getData();
+	    scanlineStride = sm.getScanlineStride();
+	    pixelStride = sm.getPixelStride();
+	    int x = raster.getMinX() - raster.getSampleModelTranslateX();
+	    int y = raster.getMinY() - raster.getSampleModelTranslateY();
+	    // start of pixel, band offsets are added per sample
+	    offset = y * sm.getScanlineStride() + x * sm.getPixelStride() + raster.getDataBuffer().getOffset();
+
+	    offset0 = bandOffsets[0];
+	    offset1 = isGray ? offset0 : bandOffsets[1];
+	    offset2 = isGray ? offset0 : bandOffsets[2];
+	    offset3 = hasAlpha ? bandOffsets[3] : 0;
+	}
+
+	static boolean isSupported(ComponentSampleModel sm) {
+	    return sm.getDataType() == DataBuffer.TYPE_BYTE && isInterleaved(sm);
+	}
+
+	@Override
+	void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final byte[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    float v = (data[index] & 0xFF) * denom;
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = (data[index + offset0] & 0xFF) * denom;
+		    c1[x] = (data[index + offset1] & 0xFF) * denom;
+		    c2[x] = (data[index + offset2] & 0xFF) * denom;
+		    alpha[x] = (data[index + offset3] & 0xFF) * denom;
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = (data[index + offset0] & 0xFF) * denom;
+		    c1[x] = (data[index + offset1] & 0xFF) * denom;
+		    c2[x] = (data[index + offset2] & 0xFF) * denom;
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final byte[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = (byte) clamp(c0[x]);
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (byte) clamp(c0[x]);
+		    data[index + offset1] = (byte) clamp(c1[x]);
+		    data[index + offset2] = (byte) clamp(c2[x]);
+		    data[index + offset3] = (byte) clamp(alpha[x]);
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (byte) clamp(c0[x]);
+		    data[index + offset1] = (byte) clamp(c1[x]);
+		    data[index + offset2] = (byte) clamp(c2[x]);
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final byte[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    int v = data[index] & 0xFF;
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = data[index + offset0] & 0xFF;
+		    c1[x] = data[index + offset1] & 0xFF;
+		    c2[x] = data[index + offset2] & 0xFF;
+		    alpha[x] = data[index + offset3] & 0xFF;
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = data[index + offset0] & 0xFF;
+		    c1[x] = data[index + offset1] & 0xFF;
+		    c2[x] = data[index + offset2] & 0xFF;
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final byte[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = (byte) c0[x];
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (byte) c0[x];
+		    data[index + offset1] = (byte) c1[x];
+		    data[index + offset2] = (byte) c2[x];
+		    data[index + offset3] = (byte) alpha[x];
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (byte) c0[x];
+		    data[index + offset1] = (byte) c1[x];
+		    data[index + offset2] = (byte) c2[x];
+		    index += pixelStride;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Rasters with all bands interleaved in one short array and 16 bit per
+     * band, e.g. TYPE_USHORT_GRAY or 16 bit RGB(A) rasters of PNG and TIFF
+     * images.
+     */
+    static class UShortInterleaved extends RasterRows {
+
+	final short[] data;
+	final int offset;
+	final int scanlineStride;
+	final int pixelStride;
+
+	final int offset0, offset1, offset2, offset3;
+
+	UShortInterleaved(Raster raster) {
+	    super(raster);
+	    ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+	    int[] bandOffsets = sm.getBandOffsets();
+
+	    data = ((DataBufferUShort) raster.getDataBuffer()).getData();
+	    scanlineStride = sm.getScanlineStride();
+	    pixelStride = sm.getPixelStride();
+	    int x = raster.getMinX() - raster.getSampleModelTranslateX();
+	    int y = raster.getMinY() - raster.getSampleModelTranslateY();
+	    // start of pixel, band offsets are added per sample
+	    offset = y * sm.getScanlineStride() + x * sm.getPixelStride() + raster.getDataBuffer().getOffset();
+
+	    offset0 = bandOffsets[0];
+	    offset1 = isGray ? offset0 : bandOffsets[1];
+	    offset2 = isGray ? offset0 : bandOffsets[2];
+	    offset3 = hasAlpha ? bandOffsets[3] : 0;
+	}
+
+	static boolean isSupported(ComponentSampleModel sm) {
+	    return sm.getDataType() == DataBuffer.TYPE_USHORT && isInterleaved(sm);
+	}
+
+	@Override
+	void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final short[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    float v = (data[index] & 0xFFFF) * denom16;
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = (data[index + offset0] & 0xFFFF) * denom16;
+		    c1[x] = (data[index + offset1] & 0xFFFF) * denom16;
+		    c2[x] = (data[index + offset2] & 0xFFFF) * denom16;
+		    alpha[x] = (data[index + offset3] & 0xFFFF) * denom16;
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = (data[index + offset0] & 0xFFFF) * denom16;
+		    c1[x] = (data[index + offset1] & 0xFFFF) * denom16;
+		    c2[x] = (data[index + offset2] & 0xFFFF) * denom16;
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final short[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = (short) clamp16(c0[x]);
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (short) clamp16(c0[x]);
+		    data[index + offset1] = (short) clamp16(c1[x]);
+		    data[index + offset2] = (short) clamp16(c2[x]);
+		    data[index + offset3] = (short) clamp16(alpha[x]);
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (short) clamp16(c0[x]);
+		    data[index + offset1] = (short) clamp16(c1[x]);
+		    data[index + offset2] = (short) clamp16(c2[x]);
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	/**
+	 * 16 bit sample to 8 bit, rounded.
+	 */
+	private static int to8(int v) {
+	    return (v * 255 + 32767) / 65535;
+	}
+
+	@Override
+	void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final short[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    int v = to8(data[index] & 0xFFFF);
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = to8(data[index + offset0] & 0xFFFF);
+		    c1[x] = to8(data[index + offset1] & 0xFFFF);
+		    c2[x] = to8(data[index + offset2] & 0xFFFF);
+		    alpha[x] = to8(data[index + offset3] & 0xFFFF);
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = to8(data[index + offset0] & 0xFFFF);
+		    c1[x] = to8(data[index + offset1] & 0xFFFF);
+		    c2[x] = to8(data[index + offset2] & 0xFFFF);
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final short[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    // 255 * 257 is 65535
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = (short) (c0[x] * 257);
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (short) (c0[x] * 257);
+		    data[index + offset1] = (short) (c1[x] * 257);
+		    data[index + offset2] = (short) (c2[x] * 257);
+		    data[index + offset3] = (short) (alpha[x] * 257);
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = (short) (c0[x] * 257);
+		    data[index + offset1] = (short) (c1[x] * 257);
+		    data[index + offset2] = (short) (c2[x] * 257);
+		    index += pixelStride;
+		}
+	    }
+	}
+    }
+
+    /**
+     * Rasters with all bands interleaved in one float array. Samples are not
+     * normalized and not clamped, so values outside of 0..1 (e.g. linear HDR
+     * data) are kept.
+     */
+    static class FloatInterleaved extends RasterRows {
+
+	final float[] data;
+	final int offset;
+	final int scanlineStride;
+	final int pixelStride;
+
+	final int offset0, offset1, offset2, offset3;
+
+	FloatInterleaved(Raster raster) {
+	    super(raster);
+	    ComponentSampleModel sm = (ComponentSampleModel) raster.getSampleModel();
+	    int[] bandOffsets = sm.getBandOffsets();
+
+	    data = ((DataBufferFloat) raster.getDataBuffer()).getData();
+	    scanlineStride = sm.getScanlineStride();
+	    pixelStride = sm.getPixelStride();
+	    int x = raster.getMinX() - raster.getSampleModelTranslateX();
+	    int y = raster.getMinY() - raster.getSampleModelTranslateY();
+	    // start of pixel, band offsets are added per sample
+	    offset = y * sm.getScanlineStride() + x * sm.getPixelStride() + raster.getDataBuffer().getOffset();
+
+	    offset0 = bandOffsets[0];
+	    offset1 = isGray ? offset0 : bandOffsets[1];
+	    offset2 = isGray ? offset0 : bandOffsets[2];
+	    offset3 = hasAlpha ? bandOffsets[3] : 0;
+	}
+
+	static boolean isSupported(ComponentSampleModel sm) {
+	    return sm.getDataType() == DataBuffer.TYPE_FLOAT && isInterleaved(sm);
+	}
+
+	@Override
+	void getRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final float[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    float v = data[index];
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = data[index + offset0];
+		    c1[x] = data[index + offset1];
+		    c2[x] = data[index + offset2];
+		    alpha[x] = data[index + offset3];
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = data[index + offset0];
+		    c1[x] = data[index + offset1];
+		    c2[x] = data[index + offset2];
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow(int y, int width, float[] c0, float[] c1, float[] c2, float[] alpha) {
+	    final float[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = c0[x];
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = c0[x];
+		    data[index + offset1] = c1[x];
+		    data[index + offset2] = c2[x];
+		    data[index + offset3] = alpha[x];
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = c0[x];
+		    data[index + offset1] = c1[x];
+		    data[index + offset2] = c2[x];
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	/**
+	 * Values outside of 0..1 are clamped.
+	 */
+	@Override
+	void getRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final float[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    int v = clamp(data[index]);
+		    c0[x] = v;
+		    c1[x] = v;
+		    c2[x] = v;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = clamp(data[index + offset0]);
+		    c1[x] = clamp(data[index + offset1]);
+		    c2[x] = clamp(data[index + offset2]);
+		    alpha[x] = clamp(data[index + offset3]);
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    c0[x] = clamp(data[index + offset0]);
+		    c1[x] = clamp(data[index + offset1]);
+		    c2[x] = clamp(data[index + offset2]);
+		    index += pixelStride;
+		}
+	    }
+	}
+
+	@Override
+	void setRow8(int y, int width, int[] c0, int[] c1, int[] c2, int[] alpha) {
+	    final float[] data = this.data;
+	    final int pixelStride = this.pixelStride;
+
+	    int index = offset + y * scanlineStride;
+	    if (isGray) {
+		index += offset0;
+		for (int x = 0; x < width; x++) {
+		    data[index] = c0[x] * denom;
+		    index += pixelStride;
+		}
+	    } else if (hasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = c0[x] * denom;
+		    data[index + offset1] = c1[x] * denom;
+		    data[index + offset2] = c2[x] * denom;
+		    data[index + offset3] = alpha[x] * denom;
+		    index += pixelStride;
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    data[index + offset0] = c0[x] * denom;
+		    data[index + offset1] = c1[x] * denom;
+		    data[index + offset2] = c2[x] * denom;
+		    index += pixelStride;
+		}
+	    }
+	}
+    }
+}
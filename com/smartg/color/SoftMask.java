@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+
+/**
+ * Soft mask (PDF 1.7, 11.6.5.2). Mask values are multiplied into source alpha
+ * inside of compositing loop, so masked compositing needs no extra pass.
+ * <p>
+ * Mask raster uses same coordinates as destination raster passed to
+ * CompositeContext.compose(), pixels outside of mask raster get value of
+ * backdrop (0 for ALPHA, luminosity of backdrop color for LUMINOSITY).
+ * ALPHA mask uses alpha band or, if raster has no alpha, its first band.
+ * LUMINOSITY mask uses gray value or luminosity of RGB samples, which are
+ * composed over backdrop color if raster has alpha.
+ * 
+ * @see IComposite#setSoftMask(SoftMask)
+ */
+public class SoftMask {
+
+    public enum Type {
+	ALPHA, LUMINOSITY
+    }
+
+    private final Raster mask;
+    private final Type type;
+    private final RasterRows rows;
+
+    // transfer function samples, one more entry than given
+    private final float[] table;
+
+    private float backdropLum;
+    private float outside;
+
+    public SoftMask(Raster mask, Type type) {
+	this(mask, type, null);
+    }
+
+    /**
+     * @param transfer
+     *            transfer function (TR entry of soft mask dictionary) sampled
+     *            at evenly spaced points from 0 to 1, at least 2 values,
+     *            linearly interpolated. null for identity.
+     */
+    public SoftMask(Raster mask, Type type, float[] transfer) {
+	if (mask == null || type == null) {
+	    throw new NullPointerException();
+	}
+	int numBands = mask.getNumBands();
+	if (numBands != 1 && numBands != 3 && numBands != 4) {
+	    throw new IllegalArgumentException("Unsupported number of bands: " + numBands);
+	}
+	this.mask = mask;
+	this.type = type;
+	this.rows = RasterRows.create(mask);
+
+	if (transfer != null) {
+	    int size = transfer.length;
+	    if (size < 2) {
+		throw new IllegalArgumentException("Transfer function needs at least 2 values");
+	    }
+	    // one more entry, so interpolation needs no bounds check
+	    table = new float[size + 1];
+	    for (int i = 0; i < size; i++) {
+		table[i] = clamp(transfer[i]);
+	    }
+	    table[size] = table[size - 1];
+	} else {
+	    table = null;
+	}
+	outside = transfer(0);
+    }
+
+    public Raster getMask() {
+	return mask;
+    }
+
+    public Type getType() {
+	return type;
+    }
+
+    /**
+     * @return copy of transfer function samples (clamped to 0 - 1) or null
+     */
+    public float[] getTransfer() {
+	if (table == null) {
+	    return null;
+	}
+	float[] transfer = new float[table.length - 1];
+	System.arraycopy(table, 0, transfer, 0, transfer.length);
+	return transfer;
+    }
+
+    /**
+     * Set backdrop color (BC entry of soft mask dictionary), used by
+     * LUMINOSITY masks only. Default is black.
+     */
+    public void setBackdrop(float r, float g, float b) {
+	backdropLum = clamp(0.3f * r + 0.59f * g + 0.11f * b);
+	if (type == Type.LUMINOSITY) {
+	    outside = transfer(backdropLum);
+	}
+    }
+
+    private static float clamp(float f) {
+	if (f < 0) {
+	    return 0;
+	}
+	if (f > 1) {
+	    return 1;
+	}
+	return f;
+    }
+
+    private float transfer(float v) {
+	if (table == null) {
+	    return v;
+	}
+	float f = clamp(v) * (table.length - 2);
+	int i = (int) f;
+	float t0 = table[i];
+	return t0 + (table[i + 1] - t0) * (f - i);
+    }
+
+    /**
+     * Rows of mask which cover <code>area</code>.
+     */
+    Rows rows(Rectangle area) {
+	Rectangle r = area.intersection(mask.getBounds());
+	RasterRows rows = null;
+	if (!r.isEmpty()) {
+	    if (r.equals(mask.getBounds())) {
+		rows = this.rows;
+	    } else {
+		rows = RasterRows.create(mask.createChild(r.x, r.y, r.width, r.height, 0, 0, null));
+	    }
+	}
+	return new Rows(rows, r.x - area.x, r.y - area.y, r.width, r.height);
+    }
+
+    /**
+     * Mask values relative to some area.
+     */
+    class Rows {
+	private final RasterRows rows;
+	private final int dx;
+	private final int dy;
+	private final int width;
+	private final int height;
+
+	Rows(RasterRows rows, int dx, int dy, int width, int height) {
+	    this.rows = rows;
+	    this.dx = dx;
+	    this.dy = dy;
+	    this.width = width;
+	    this.height = height;
+	}
+
+	/**
+	 * Multiply mask values of row <code>y</code> into <code>alpha</code>.
+	 * Arrays c0, c1, c2 and a are used as scratch.
+	 */
+	void apply(int y, int length, float[] alpha, float[] c0, float[] c1, float[] c2, float[] a) {
+	    int x0 = 0;
+	    int x1 = 0;
+	    int my = y - dy;
+	    if (rows != null && my >= 0 && my < height) {
+		x0 = dx;
+		x1 = Math.min(length, dx + width);
+	    }
+	    if (x0 >= x1) {
+		multiply(alpha, 0, length, outside);
+		return;
+	    }
+	    multiply(alpha, 0, x0, outside);
+	    multiply(alpha, x1, length, outside);
+
+	    int n = x1 - x0;
+	    rows.getRow(my, n, c0, c1, c2, a);
+	    if (type == Type.ALPHA) {
+		float[] values = rows.hasAlpha ? a : c0;
+		for (int i = 0; i < n; i++) {
+		    alpha[x0 + i] *= transfer(values[i]);
+		}
+	    } else {
+		final boolean hasAlpha = rows.hasAlpha;
+		final float bl = backdropLum;
+		for (int i = 0; i < n; i++) {
+		    float v = 0.3f * c0[i] + 0.59f * c1[i] + 0.11f * c2[i];
+		    if (hasAlpha) {
+			v = bl + (v - bl) * a[i];
+		    }
+		    alpha[x0 + i] *= transfer(v);
+		}
+	    }
+	}
+
+	private void multiply(float[] alpha, int from, int to, float value) {
+	    if (value == 1) {
+		return;
+	    }
+	    for (int x = from; x < to; x++) {
+		alpha[x] *= value;
+	    }
+	}
+    }
+}
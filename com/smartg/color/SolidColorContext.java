@@ -0,0 +1,315 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.util.Arrays;
+
+/**
+ * CompositeContext for SolidColorComposite. Color, alpha and blend mode are
+ * taken when context is created.
+ * 
+ * For separable modes and 8 bit destination blend results are computed once
+ * for all 256 backdrop values of every channel, so composing a pixel is a
+ * table lookup (opaque backdrop) or alpha blending only.
+ */
+class SolidColorContext extends PDF_CompositeContext {
+
+    private final float[] color;
+    private final float as;
+    private final Composer composer;
+
+    // blend results for backdrop values 0..255, null for non-separable modes
+    private float[][] blend;
+    // final results for opaque backdrop
+    private int[][] opaque;
+
+    SolidColorContext(SolidColorComposite composite, boolean fixedPoint, boolean dstPremultiplied) {
+	super(composite, fixedPoint, false, dstPremultiplied);
+	float[] rgba = composite.getColor().getRGBComponents(null);
+	this.color = new float[] { rgba[0], rgba[1], rgba[2] };
+	this.as = rgba[3] * composite.getAlpha();
+	this.composer = composite.getComposer();
+
+	if (composer instanceof Composer.Separable) {
+	    createTables((Composer.Separable) composer);
+	}
+    }
+
+    private void createTables(Composer.Separable composer) {
+	float[] cb = new float[256];
+	for (int i = 0; i < 256; i++) {
+	    cb[i] = i * RasterRows.denom;
+	}
+	float[] cs = new float[256];
+	blend = new float[3][256];
+	opaque = new int[3][256];
+	for (int c = 0; c < 3; c++) {
+	    Arrays.fill(cs, color[c]);
+	    composer.composePlane(cs, cb, blend[c], 0, 256);
+	    for (int i = 0; i < 256; i++) {
+		opaque[c][i] = RasterRows.clamp(composite(cb[i], color[c], blend[c][i], 1));
+	    }
+	}
+    }
+
+    /**
+     * Same arithmetic as in compose2, so results don't depend on selected
+     * path.
+     */
+    private float composite(float cb, float cs, float r, float ab) {
+	float ar = ab + as - (ab * as);
+	float f = as / ar;
+	float sb = 1 - ab;
+	return (1 - f) * cb + f * (sb * cs + ab * r);
+    }
+
+    @Override
+    void composeRows(RasterRows srcRows, RasterRows inRows, RasterRows outRows, int width, int y0, int y1, CompositeType fixedType) {
+	// source is never read
+	Buffers buffers = takeBuffers();
+	try {
+	    if (as == 0) {
+		copyRows(buffers, inRows, outRows, width, y0, y1);
+		composite.countPixels((long) width * (y1 - y0), 0);
+	    } else if (maskRows != null) {
+		composeMasked(buffers, inRows, outRows, width, y0, y1);
+	    } else if (blend != null && inRows.is8Bit && outRows.is8Bit && !(dstPremultiplied && inRows.hasAlpha)) {
+		composeTables(buffers, inRows, outRows, width, y0, y1);
+	    } else {
+		composeSolid(buffers, inRows, outRows, width, y0, y1);
+	    }
+	} finally {
+	    releaseBuffers(buffers);
+	}
+    }
+
+    private void composeTables(Buffers buffers, RasterRows inRows, RasterRows outRows, int width, int y0, int y1) {
+	boolean dstHasAlpha = inRows.hasAlpha;
+
+	int[][] buf = buffers.ints(width);
+	int[] inSamples0 = buf[0];
+	int[] inSamples1 = buf[1];
+	int[] inSamples2 = buf[2];
+	int[] inSamples3 = buf[3];
+
+	final int[] opaque0 = opaque[0];
+	final int[] opaque1 = opaque[1];
+	final int[] opaque2 = opaque[2];
+
+	final float[] blend0 = blend[0];
+	final float[] blend1 = blend[1];
+	final float[] blend2 = blend[2];
+
+	final float cs0 = color[0];
+	final float cs1 = color[1];
+	final float cs2 = color[2];
+	final float denom = RasterRows.denom;
+
+	for (int y = y0; y < y1; y++) {
+	    inRows.getRow8(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+	    if (!dstHasAlpha) {
+		for (int x = 0; x < width; x++) {
+		    inSamples0[x] = opaque0[inSamples0[x]];
+		    inSamples1[x] = opaque1[inSamples1[x]];
+		    inSamples2[x] = opaque2[inSamples2[x]];
+		}
+	    } else {
+		for (int x = 0; x < width; x++) {
+		    int ab8 = inSamples3[x];
+		    if (ab8 == 255) {
+			inSamples0[x] = opaque0[inSamples0[x]];
+			inSamples1[x] = opaque1[inSamples1[x]];
+			inSamples2[x] = opaque2[inSamples2[x]];
+		    } else {
+			float ab = ab8 * denom;
+			int cb0 = inSamples0[x];
+			int cb1 = inSamples1[x];
+			int cb2 = inSamples2[x];
+			inSamples0[x] = RasterRows.clamp(composite(cb0 * denom, cs0, blend0[cb0], ab));
+			inSamples1[x] = RasterRows.clamp(composite(cb1 * denom, cs1, blend1[cb1], ab));
+			inSamples2[x] = RasterRows.clamp(composite(cb2 * denom, cs2, blend2[cb2], ab));
+			inSamples3[x] = RasterRows.clamp(ab + as - (ab * as));
+		    }
+		}
+	    }
+	    outRows.setRow8(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+	}
+    }
+
+    private void composeSolid(Buffers buffers, RasterRows inRows, RasterRows outRows, int width, int y0, int y1) {
+	boolean dstHasAlpha = inRows.hasAlpha;
+	final Composer composer = rowComposer(this.composer, inRows.is8Bit && outRows.is8Bit);
+
+	float[][] buf = buffers.floats(width);
+
+	float[] srcSamples0 = buf[0];
+	float[] srcSamples1 = buf[1];
+	float[] srcSamples2 = buf[2];
+	Arrays.fill(srcSamples0, 0, width, color[0]);
+	Arrays.fill(srcSamples1, 0, width, color[1]);
+	Arrays.fill(srcSamples2, 0, width, color[2]);
+
+	float[] inSamples0 = buf[4];
+	float[] inSamples1 = buf[5];
+	float[] inSamples2 = buf[6];
+	float[] inSamples3 = buf[7];
+
+	float[] outSamples0 = buf[8];
+	float[] outSamples1 = buf[9];
+	float[] outSamples2 = buf[10];
+	float[] outSamples3 = buf[11];
+
+	final float cs0 = color[0];
+	final float cs1 = color[1];
+	final float cs2 = color[2];
+
+	if (dstPremultiplied && dstHasAlpha) {
+	    for (int y = y0; y < y1; y++) {
+		inRows.getRow(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+
+		// see PDF_CompositeContext.composePremultiplied
+		unpremultiply(inSamples0, inSamples1, inSamples2, inSamples3, outSamples0, outSamples1, outSamples2, width);
+		composer.composeRow(srcSamples0, srcSamples1, srcSamples2, outSamples0, outSamples1, outSamples2, outSamples0, outSamples1,
+			outSamples2, 0, width);
+
+		for (int x = 0; x < width; x++) {
+		    float ab = inSamples3[x];
+
+		    float fb = 1 - as;
+		    float fs = as * (1 - ab);
+		    float fr = as * ab;
+
+		    outSamples0[x] = fb * inSamples0[x] + fs * cs0 + fr * outSamples0[x];
+		    outSamples1[x] = fb * inSamples1[x] + fs * cs1 + fr * outSamples1[x];
+		    outSamples2[x] = fb * inSamples2[x] + fs * cs2 + fr * outSamples2[x];
+		    outSamples3[x] = ab + as - (ab * as);
+		}
+		outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+	    }
+	    return;
+	}
+
+	for (int y = y0; y < y1; y++) {
+	    inRows.getRow(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+
+	    composer.composeRow(srcSamples0, srcSamples1, srcSamples2, inSamples0, inSamples1, inSamples2, outSamples0, outSamples1, outSamples2, 0,
+		    width);
+
+	    for (int x = 0; x < width; x++) {
+		float ab = 1;
+		if (dstHasAlpha) {
+		    ab = inSamples3[x];
+		}
+
+		float ar = ab + as - (ab * as);
+		float f = as / ar;
+		float sb = 1 - ab;
+
+		outSamples0[x] = (1 - f) * inSamples0[x] + f * (sb * cs0 + ab * outSamples0[x]);
+		outSamples1[x] = (1 - f) * inSamples1[x] + f * (sb * cs1 + ab * outSamples1[x]);
+		outSamples2[x] = (1 - f) * inSamples2[x] + f * (sb * cs2 + ab * outSamples2[x]);
+		outSamples3[x] = ar;
+	    }
+	    outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+	}
+    }
+
+    /**
+     * Source alpha varies with soft mask, so blending is done as in
+     * compose2. Premultiplied destination is unpremultiplied before and
+     * premultiplied after blending.
+     */
+    private void composeMasked(Buffers buffers, RasterRows inRows, RasterRows outRows, int width, int y0, int y1) {
+	boolean dstHasAlpha = inRows.hasAlpha;
+	boolean premultiplied = dstPremultiplied && dstHasAlpha;
+	final Composer composer = rowComposer(this.composer, inRows.is8Bit && outRows.is8Bit);
+	final boolean normal = composite.getType() == CompositeType.NORMAL;
+
+	float[][] buf = buffers.floats(width);
+
+	float[] srcSamples0 = buf[0];
+	float[] srcSamples1 = buf[1];
+	float[] srcSamples2 = buf[2];
+	float[] srcSamples3 = buf[3];
+	Arrays.fill(srcSamples0, 0, width, color[0]);
+	Arrays.fill(srcSamples1, 0, width, color[1]);
+	Arrays.fill(srcSamples2, 0, width, color[2]);
+
+	float[] inSamples0 = buf[4];
+	float[] inSamples1 = buf[5];
+	float[] inSamples2 = buf[6];
+	float[] inSamples3 = buf[7];
+	if (!dstHasAlpha) {
+	    Arrays.fill(inSamples3, 0, width, 1f);
+	}
+
+	float[] outSamples0 = buf[8];
+	float[] outSamples1 = buf[9];
+	float[] outSamples2 = buf[10];
+	float[] outSamples3 = buf[11];
+
+	for (int y = y0; y < y1; y++) {
+	    Arrays.fill(srcSamples3, 0, width, 1f);
+	    maskRows.apply(y, width, srcSamples3, outSamples0, outSamples1, outSamples2, outSamples3);
+
+	    inRows.getRow(y, width, inSamples0, inSamples1, inSamples2, inSamples3);
+	    if (premultiplied) {
+		unpremultiply(inSamples0, inSamples1, inSamples2, inSamples3, inSamples0, inSamples1, inSamples2, width);
+	    }
+
+	    composer.composeRow(srcSamples0, srcSamples1, srcSamples2, inSamples0, inSamples1, inSamples2, outSamples0, outSamples1, outSamples2, 0,
+		    width);
+	    blendRow(srcSamples0, srcSamples1, srcSamples2, srcSamples3, inSamples0, inSamples1, inSamples2, inSamples3, outSamples0, outSamples1,
+		    outSamples2, outSamples3, true, dstHasAlpha, as, width);
+	    replaceSpecial(srcSamples0, srcSamples1, srcSamples2, srcSamples3, inSamples0, inSamples1, inSamples2, inSamples3, outSamples0,
+		    outSamples1, outSamples2, outSamples3, as, normal, width);
+
+	    if (premultiplied) {
+		for (int x = 0; x < width; x++) {
+		    float ar = outSamples3[x];
+		    // premultiplied color can't exceed alpha
+		    outSamples0[x] = Math.min(outSamples0[x] * ar, ar);
+		    outSamples1[x] = Math.min(outSamples1[x] * ar, ar);
+		    outSamples2[x] = Math.min(outSamples2[x] * ar, ar);
+		}
+	    }
+	    outRows.setRow(y, width, outSamples0, outSamples1, outSamples2, outSamples3);
+	}
+    }
+
+    /**
+     * Context depends on color of SolidColorComposite, so it is not pooled.
+     */
+    @Override
+    public void dispose() {
+	release();
+    }
+}
@@ -0,0 +1,441 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.CompositeContext;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Compositing of CMYK and DeviceN rasters without conversion to RGB (PDF
+ * 1.7, 11.3.5 and 11.7.4.2).
+ * <p>
+ * Colorant values are complemented before blend function is applied and
+ * blend result is complemented back, so Composer works with additive values.
+ * Compositing formula is same as for RGB. Non-separable blend modes are
+ * applied to process colorants (CMY or CMYK) only: K is taken from backdrop,
+ * or from source for LUMINOSITY. Spot colorants are composed with NORMAL
+ * blend mode if blend mode is non-separable.
+ * <p>
+ * Raster has <code>numColorants</code> bands and optionally alpha band after
+ * them. Samples must not be premultiplied.
+ */
+class SubtractiveContext implements CompositeContext {
+
+    private final IComposite composite;
+    final int numColorants;
+    final int processColorants;
+
+    // scratch rows, one Buffers for every concurrently composed row band
+    private final ConcurrentLinkedQueue<Buffers> buffers = new ConcurrentLinkedQueue<Buffers>();
+
+    // planes of last composed rasters
+    private Planes srcPlanes;
+    private Planes inPlanes;
+    private Planes outPlanes;
+
+    // set while context is in pool of IComposite
+    boolean pooled;
+
+    /**
+     * @param processColorants
+     *            number of leading process colorants: 4 (CMYK), 3 (CMY) or 0
+     *            (spot colorants only)
+     */
+    SubtractiveContext(IComposite composite, int numColorants, int processColorants) {
+	if (numColorants <= 0 || (processColorants != 0 && processColorants != 3 && processColorants != 4) || processColorants > numColorants) {
+	    throw new IllegalArgumentException();
+	}
+	this.composite = composite;
+	this.numColorants = numColorants;
+	this.processColorants = processColorants;
+    }
+
+    /**
+     * Scratch rows which are kept between compose() calls. Arrays are
+     * reallocated only if they are shorter than requested width.
+     */
+    static class Buffers {
+	private final int numColorants;
+	float[][] cs;
+	float[][] cb;
+	float[][] res;
+	// as, ab, ar, s, b and 4 rows for soft mask
+	float[][] rows;
+	int[] scratch = new int[0];
+
+	Buffers(int numColorants) {
+	    this.numColorants = numColorants;
+	    cs = new float[numColorants][0];
+	    cb = new float[numColorants][0];
+	    res = new float[numColorants][0];
+	    rows = new float[9][0];
+	}
+
+	void ensure(int width) {
+	    if (scratch.length < width) {
+		cs = new float[numColorants][width];
+		cb = new float[numColorants][width];
+		res = new float[numColorants][width];
+		rows = new float[9][width];
+		scratch = new int[width];
+	    }
+	}
+    }
+
+    private Buffers takeBuffers(int width) {
+	Buffers b = buffers.poll();
+	if (b == null) {
+	    b = new Buffers(numColorants);
+	}
+	b.ensure(width);
+	return b;
+    }
+
+    private static Planes planes(Raster raster, Planes cached) {
+	if (cached != null && cached.raster == raster) {
+	    return cached;
+	}
+	return new Planes(raster);
+    }
+
+    public void compose(Raster src, Raster dstIn, WritableRaster dstOut) {
+	checkBands(src);
+	checkBands(dstIn);
+	checkBands(dstOut);
+
+	Planes srcPlanes = this.srcPlanes = planes(src, this.srcPlanes);
+	Planes inPlanes = this.inPlanes = planes(dstIn, this.inPlanes);
+	Planes outPlanes = this.outPlanes = dstOut == dstIn ? inPlanes : planes(dstOut, this.outPlanes);
+
+	int width = Math.min(src.getWidth(), dstIn.getWidth());
+	int height = Math.min(src.getHeight(), dstIn.getHeight());
+
+	SoftMask softMask = composite.getSoftMask();
+	SoftMask.Rows maskRows = softMask == null ? null : softMask.rows(new Rectangle(dstIn.getMinX(), dstIn.getMinY(), width, height));
+
+	ForkJoinPool pool = composite.getForkJoinPool();
+	if (pool == null) {
+	    pool = ForkJoinPool.commonPool();
+	}
+	long start = CompositeMetrics.ENABLED ? System.nanoTime() : 0;
+
+	int parallelism = pool.getParallelism();
+	if (parallelism > 1 && height > 1 && (long) width * height >= composite.getParallelThreshold()) {
+	    int bandHeight = Math.max(1, height / (parallelism * 4));
+	    pool.invoke(new RowBands(srcPlanes, inPlanes, outPlanes, maskRows, width, 0, height, bandHeight));
+	} else {
+	    composeRows(srcPlanes, inPlanes, outPlanes, maskRows, width, 0, height);
+	}
+
+	if (CompositeMetrics.ENABLED) {
+	    CompositeMetrics.record(composite.getType(), CompositeMetrics.Layout.SUBTRACTIVE, false, (long) width * height, System.nanoTime() - start);
+	}
+    }
+
+    private void checkBands(Raster raster) {
+	int numBands = raster.getNumBands();
+	if (numBands != numColorants && numBands != numColorants + 1) {
+	    throw new IllegalArgumentException("Raster has " + numBands + " bands, expected " + numColorants + " colorants");
+	}
+    }
+
+    class RowBands extends RecursiveAction {
+
+	private static final long serialVersionUID = -6297718530284401546L;
+
+	final Planes src;
+	final Planes dstIn;
+	final Planes dstOut;
+	final SoftMask.Rows maskRows;
+	final int width;
+	final int y0;
+	final int y1;
+	final int bandHeight;
+
+	RowBands(Planes src, Planes dstIn, Planes dstOut, SoftMask.Rows maskRows, int width, int y0, int y1, int bandHeight) {
+	    this.src = src;
+	    this.dstIn = dstIn;
+	    this.dstOut = dstOut;
+	    this.maskRows = maskRows;
+	    this.width = width;
+	    this.y0 = y0;
+	    this.y1 = y1;
+	    this.bandHeight = bandHeight;
+	}
+
+	@Override
+	protected void compute() {
+	    if (y1 - y0 <= bandHeight) {
+		composeRows(src, dstIn, dstOut, maskRows, width, y0, y1);
+	    } else {
+		int middle = (y0 + y1) >>> 1;
+		invokeAll(new RowBands(src, dstIn, dstOut, maskRows, width, y0, middle, bandHeight), new RowBands(src, dstIn, dstOut, maskRows,
+			width, middle, y1, bandHeight));
+	    }
+	}
+    }
+
+    /**
+     * Reads and writes rows of one raster as normalized planes.
+     */
+    private static class Planes {
+	final Raster raster;
+	final int numBands;
+	final boolean isFloat;
+	final float[] norm;
+	final float[] max;
+
+	Planes(Raster raster) {
+	    this.raster = raster;
+	    this.numBands = raster.getNumBands();
+	    int transferType = raster.getTransferType();
+	    this.isFloat = transferType == DataBuffer.TYPE_FLOAT || transferType == DataBuffer.TYPE_DOUBLE;
+	    int[] sampleSize = raster.getSampleModel().getSampleSize();
+	    norm = new float[numBands];
+	    max = new float[numBands];
+	    for (int i = 0; i < numBands; i++) {
+		max[i] = isFloat ? 1 : (float) ((1L << sampleSize[i]) - 1);
+		norm[i] = 1 / max[i];
+	    }
+	}
+
+	void getRow(int y, int width, int band, float[] samples, int[] scratch) {
+	    int x0 = raster.getMinX();
+	    int y0 = raster.getMinY() + y;
+	    if (isFloat) {
+		raster.getSamples(x0, y0, width, 1, band, samples);
+		return;
+	    }
+	    raster.getSamples(x0, y0, width, 1, band, scratch);
+	    final float n = norm[band];
+	    for (int x = 0; x < width; x++) {
+		samples[x] = scratch[x] * n;
+	    }
+	}
+
+	void setRow(int y, int width, int band, float[] samples, int[] scratch) {
+	    WritableRaster wr = (WritableRaster) raster;
+	    int x0 = raster.getMinX();
+	    int y0 = raster.getMinY() + y;
+	    if (isFloat) {
+		wr.setSamples(x0, y0, width, 1, band, samples);
+		return;
+	    }
+	    final float m = max[band];
+	    for (int x = 0; x < width; x++) {
+		float f = samples[x];
+		if (f < 0) {
+		    f = 0;
+		} else if (f > 1) {
+		    f = 1;
+		}
+		scratch[x] = (int) (f * m + 0.5f);
+	    }
+	    wr.setSamples(x0, y0, width, 1, band, scratch);
+	}
+    }
+
+    private void composeRows(Planes srcPlanes, Planes inPlanes, Planes outPlanes, SoftMask.Rows maskRows, int width, int y0, int y1) {
+	Buffers buffers = takeBuffers(width);
+	try {
+	    composeRows(buffers, srcPlanes, inPlanes, outPlanes, maskRows, width, y0, y1);
+	} finally {
+	    this.buffers.offer(buffers);
+	}
+    }
+
+    private void composeRows(Buffers buffers, Planes srcPlanes, Planes inPlanes, Planes outPlanes, SoftMask.Rows maskRows, int width, int y0,
+	    int y1) {
+	final int n = numColorants;
+	final boolean srcHasAlpha = srcPlanes.numBands > n;
+	final boolean dstHasAlpha = inPlanes.numBands > n;
+	final boolean outHasAlpha = outPlanes.numBands > n;
+
+	final Composer composer = PDF_CompositeContext.rowComposer(composite.getComposer(), false);
+	final boolean separable = composer instanceof Composer.Separable;
+	final CompositeType type = composite.getType();
+	final float alpha = composite.getAlpha();
+	// number of colorants which are blended as RGB
+	final int rgb = separable ? 0 : Math.min(processColorants, 3);
+
+	final float[][] cs = buffers.cs;
+	final float[][] cb = buffers.cb;
+	final float[][] res = buffers.res;
+	final float[][] rows = buffers.rows;
+	final float[] as = rows[0];
+	final float[] ab = rows[1];
+	final float[] ar = rows[2];
+	final float[] s = rows[3];
+	final float[] b = rows[4];
+	final int[] scratch = buffers.scratch;
+
+	if (!dstHasAlpha) {
+	    Arrays.fill(ab, 0, width, 1f);
+	}
+
+	for (int y = y0; y < y1; y++) {
+	    if (srcHasAlpha) {
+		srcPlanes.getRow(y, width, n, as, scratch);
+	    } else {
+		Arrays.fill(as, 0, width, 1f);
+	    }
+	    if (maskRows != null) {
+		maskRows.apply(y, width, as, rows[5], rows[6], rows[7], rows[8]);
+	    }
+	    boolean transparent = true;
+	    for (int x = 0; x < width; x++) {
+		float a = as[x] * alpha;
+		as[x] = a;
+		transparent &= a == 0;
+	    }
+	    if (transparent) {
+		if (outPlanes != inPlanes) {
+		    copyRow(inPlanes, outPlanes, y, width, cb, ab, scratch);
+		}
+		continue;
+	    }
+
+	    for (int k = 0; k < n; k++) {
+		srcPlanes.getRow(y, width, k, cs[k], scratch);
+		inPlanes.getRow(y, width, k, cb[k], scratch);
+	    }
+	    if (dstHasAlpha) {
+		inPlanes.getRow(y, width, n, ab, scratch);
+	    }
+
+	    // blend functions work with additive values
+	    if (separable) {
+		Composer.Separable sc = (Composer.Separable) composer;
+		for (int k = 0; k < n; k++) {
+		    complement(cs[k], s, width);
+		    complement(cb[k], b, width);
+		    sc.composePlane(s, b, res[k], 0, width);
+		    complement(res[k], res[k], width);
+		}
+	    } else {
+		if (rgb == 3) {
+		    for (int k = 0; k < 3; k++) {
+			complement(cs[k], res[k], width);
+			complement(cb[k], cb[k], width);
+		    }
+		    composer.composeRow(res[0], res[1], res[2], cb[0], cb[1], cb[2], res[0], res[1], res[2], 0, width);
+		    for (int k = 0; k < 3; k++) {
+			complement(res[k], res[k], width);
+			complement(cb[k], cb[k], width);
+		    }
+		}
+		if (processColorants == 4) {
+		    // K of backdrop, except of LUMINOSITY
+		    System.arraycopy(type == CompositeType.LUMINOSITY ? cs[3] : cb[3], 0, res[3], 0, width);
+		}
+		for (int k = processColorants; k < n; k++) {
+		    System.arraycopy(cs[k], 0, res[k], 0, width);
+		}
+	    }
+
+	    for (int x = 0; x < width; x++) {
+		float a = as[x];
+		float ba = ab[x];
+		ar[x] = ba + a - (ba * a);
+	    }
+	    for (int k = 0; k < n; k++) {
+		float[] csk = cs[k];
+		float[] cbk = cb[k];
+		float[] rk = res[k];
+		for (int x = 0; x < width; x++) {
+		    float a = as[x];
+		    if (a == 0) {
+			rk[x] = cbk[x];
+			continue;
+		    }
+		    float ba = ab[x];
+		    float f = a / ar[x];
+		    rk[x] = (1 - f) * cbk[x] + f * ((1 - ba) * csk[x] + ba * rk[x]);
+		}
+		outPlanes.setRow(y, width, k, rk, scratch);
+	    }
+	    if (outHasAlpha) {
+		outPlanes.setRow(y, width, n, ar, scratch);
+	    }
+	}
+    }
+
+    private void copyRow(Planes in, Planes out, int y, int width, float[][] c, float[] a, int[] scratch) {
+	for (int k = 0; k < numColorants; k++) {
+	    in.getRow(y, width, k, c[k], scratch);
+	    out.setRow(y, width, k, c[k], scratch);
+	}
+	if (out.numBands > numColorants) {
+	    if (in.numBands > numColorants) {
+		in.getRow(y, width, numColorants, a, scratch);
+	    } else {
+		Arrays.fill(a, 0, width, 1f);
+	    }
+	    out.setRow(y, width, numColorants, a, scratch);
+	}
+    }
+
+    private static void complement(float[] samples, float[] result, int width) {
+	for (int x = 0; x < width; x++) {
+	    result[x] = 1 - samples[x];
+	}
+    }
+
+    /**
+     * Context is returned to pool of IComposite (if there is free place),
+     * otherwise scratch buffers are released.
+     */
+    public void dispose() {
+	srcPlanes = null;
+	inPlanes = null;
+	outPlanes = null;
+	if (!composite.releaseContext(this)) {
+	    buffers.clear();
+	}
+    }
+
+    /**
+     * Release scratch buffers and rasters.
+     */
+    void release() {
+	srcPlanes = null;
+	inPlanes = null;
+	outPlanes = null;
+	buffers.clear();
+    }
+}
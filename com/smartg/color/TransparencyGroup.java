@@ -0,0 +1,555 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.Rectangle;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * PDF transparency group. Group contains rasters and nested groups, which are
+ * composed in order in which they were added. Group result is composed over
+ * its backdrop with blend mode and alpha of the IComposite which was used to
+ * add group to its parent.
+ * <p>
+ * Isolated group is composed over transparent backdrop, non-isolated group
+ * over its parent's backdrop, which is removed from result before group is
+ * composed over parent (PDF 1.7, 11.4.8). In knockout group every element is
+ * composed over initial backdrop of group, alpha channel of raster is used as
+ * shape and alpha of IComposite as opacity.
+ * <p>
+ * Group buffers are allocated only for group's bounding box (clipped by
+ * parent), buffers of finished groups are reused by following groups, so
+ * memory use grows with nesting depth, not with number of groups. Samples
+ * must not be premultiplied.
+ * <p>
+ * Soft masks are not supported, IComposite with soft mask is rejected with
+ * IllegalArgumentException (PDF applies soft mask to group result, compose
+ * group into raster and use that with soft mask instead).
+ */
+public class TransparencyGroup {
+
+    private static class Element {
+	final Raster raster;
+	final TransparencyGroup group;
+	final IComposite composite;
+	final int x;
+	final int y;
+
+	Element(Raster raster, TransparencyGroup group, IComposite composite, int x, int y) {
+	    this.raster = raster;
+	    this.group = group;
+	    this.composite = composite;
+	    this.x = x;
+	    this.y = y;
+	}
+
+	Rectangle getBounds() {
+	    if (group != null) {
+		return group.getBounds();
+	    }
+	    return new Rectangle(x, y, raster.getWidth(), raster.getHeight());
+	}
+    }
+
+    private final boolean isolated;
+    private final boolean knockout;
+    private final List<Element> elements = new ArrayList<Element>();
+
+    public TransparencyGroup(boolean isolated, boolean knockout) {
+	this.isolated = isolated;
+	this.knockout = knockout;
+    }
+
+    public boolean isIsolated() {
+	return isolated;
+    }
+
+    public boolean isKnockout() {
+	return knockout;
+    }
+
+    /**
+     * Add raster. Upper left corner of raster is placed at (<code>x</code>,
+     * <code>y</code>) in group coordinates.
+     */
+    public void add(Raster raster, IComposite composite, int x, int y) {
+	if (raster == null || composite == null) {
+	    throw new NullPointerException();
+	}
+	checkSoftMask(composite);
+	elements.add(new Element(raster, null, composite, x, y));
+    }
+
+    /**
+     * Add nested group. Nested group uses same coordinates as this group.
+     */
+    public void add(TransparencyGroup group, IComposite composite) {
+	if (group == null || composite == null) {
+	    throw new NullPointerException();
+	}
+	checkSoftMask(composite);
+	if (group == this || group.contains(this)) {
+	    throw new IllegalArgumentException("Cyclic group");
+	}
+	elements.add(new Element(null, group, composite, 0, 0));
+    }
+
+    private static void checkSoftMask(IComposite composite) {
+	if (composite.getSoftMask() != null) {
+	    throw new IllegalArgumentException("Soft mask is not supported in transparency group");
+	}
+    }
+
+    private boolean contains(TransparencyGroup group) {
+	for (Element e : elements) {
+	    if (e.group != null && (e.group == group || e.group.contains(group))) {
+		return true;
+	    }
+	}
+	return false;
+    }
+
+    public int getElementCount() {
+	return elements.size();
+    }
+
+    /**
+     * Bounding box of all elements.
+     */
+    public Rectangle getBounds() {
+	Rectangle bounds = null;
+	for (Element e : elements) {
+	    Rectangle r = e.getBounds();
+	    if (r.isEmpty()) {
+		continue;
+	    }
+	    if (bounds == null) {
+		bounds = r;
+	    } else {
+		bounds = bounds.union(r);
+	    }
+	}
+	if (bounds == null) {
+	    return new Rectangle();
+	}
+	return bounds;
+    }
+
+    /**
+     * Compose group over <code>dst</code> with NORMAL blend mode. Group
+     * coordinates are relative to upper left corner of <code>dst</code>.
+     */
+    public void compose(WritableRaster dst) {
+	compose(dst, new IComposite(CompositeType.NORMAL, 1f));
+    }
+
+    /**
+     * Compose group over <code>dst</code> with blend mode and alpha of
+     * <code>composite</code>. Group coordinates are relative to upper left
+     * corner of <code>dst</code>.
+     */
+    public void compose(WritableRaster dst, IComposite composite) {
+	checkSoftMask(composite);
+	Rectangle bbox = getBounds().intersection(new Rectangle(0, 0, dst.getWidth(), dst.getHeight()));
+	if (bbox.isEmpty() || composite.getAlpha() == 0) {
+	    return;
+	}
+	WritableRaster child = dst.createWritableChild(dst.getMinX() + bbox.x, dst.getMinY() + bbox.y, bbox.width, bbox.height, 0, 0, null);
+	RasterRows dstRows = RasterRows.create(child);
+
+	Renderer renderer = new Renderer(bbox.width);
+	Surface page = renderer.surface(bbox);
+	float[] c0 = renderer.in0;
+	float[] c1 = renderer.in1;
+	float[] c2 = renderer.in2;
+	float[] a = renderer.in3;
+	for (int y = 0; y < bbox.height; y++) {
+	    dstRows.getRow(y, bbox.width, c0, c1, c2, a);
+	    if (!dstRows.hasAlpha) {
+		Arrays.fill(a, 0, bbox.width, 1f);
+	    }
+	    page.setRow(y * bbox.width, bbox.width, c0, c1, c2, a);
+	}
+
+	Surface result = renderer.render(this, page, bbox);
+	if (result == null) {
+	    return;
+	}
+	renderer.compose(page, null, null, result, composite, bbox, false);
+
+	for (int y = 0; y < bbox.height; y++) {
+	    page.getRow(y * bbox.width, bbox.width, c0, c1, c2, a);
+	    dstRows.setRow(y, bbox.width, c0, c1, c2, a);
+	}
+    }
+
+    /**
+     * Straight color and alpha planes of group's bounding box.
+     */
+    private static class Surface {
+	final int x;
+	final int y;
+	final int width;
+	final int height;
+
+	float[] c0;
+	float[] c1;
+	float[] c2;
+	float[] a;
+	/**
+	 * alpha of group alone (without backdrop), non-isolated groups only
+	 */
+	float[] g;
+
+	Surface(Rectangle r) {
+	    this.x = r.x;
+	    this.y = r.y;
+	    this.width = r.width;
+	    this.height = r.height;
+	}
+
+	int offset(int x, int y) {
+	    return (y - this.y) * width + (x - this.x);
+	}
+
+	void getRow(int offset, int length, float[] c0, float[] c1, float[] c2, float[] a) {
+	    System.arraycopy(this.c0, offset, c0, 0, length);
+	    System.arraycopy(this.c1, offset, c1, 0, length);
+	    System.arraycopy(this.c2, offset, c2, 0, length);
+	    System.arraycopy(this.a, offset, a, 0, length);
+	}
+
+	void setRow(int offset, int length, float[] c0, float[] c1, float[] c2, float[] a) {
+	    System.arraycopy(c0, 0, this.c0, offset, length);
+	    System.arraycopy(c1, 0, this.c1, offset, length);
+	    System.arraycopy(c2, 0, this.c2, offset, length);
+	    System.arraycopy(a, 0, this.a, offset, length);
+	}
+    }
+
+    /**
+     * Renders one top level group. Keeps released planes for reuse and
+     * scratch rows.
+     */
+    private static class Renderer {
+	private final List<float[]> free = new ArrayList<float[]>();
+
+	final float[] src0;
+	final float[] src1;
+	final float[] src2;
+	final float[] src3;
+
+	final float[] in0;
+	final float[] in1;
+	final float[] in2;
+	final float[] in3;
+
+	final float[] out0;
+	final float[] out1;
+	final float[] out2;
+	final float[] out3;
+
+	Renderer(int width) {
+	    src0 = new float[width];
+	    src1 = new float[width];
+	    src2 = new float[width];
+	    src3 = new float[width];
+	    in0 = new float[width];
+	    in1 = new float[width];
+	    in2 = new float[width];
+	    in3 = new float[width];
+	    out0 = new float[width];
+	    out1 = new float[width];
+	    out2 = new float[width];
+	    out3 = new float[width];
+	}
+
+	/**
+	 * Take smallest free plane which is big enough. Plane is not cleared.
+	 */
+	float[] take(int size) {
+	    int index = -1;
+	    for (int i = 0; i < free.size(); i++) {
+		float[] plane = free.get(i);
+		if (plane.length >= size && (index < 0 || plane.length < free.get(index).length)) {
+		    index = i;
+		}
+	    }
+	    if (index < 0) {
+		return new float[size];
+	    }
+	    return free.remove(index);
+	}
+
+	void release(float[] plane) {
+	    if (plane != null) {
+		free.add(plane);
+	    }
+	}
+
+	Surface surface(Rectangle r) {
+	    Surface s = new Surface(r);
+	    int size = r.width * r.height;
+	    s.c0 = take(size);
+	    s.c1 = take(size);
+	    s.c2 = take(size);
+	    s.a = take(size);
+	    return s;
+	}
+
+	void release(Surface s) {
+	    release(s.c0);
+	    release(s.c1);
+	    release(s.c2);
+	    release(s.a);
+	    release(s.g);
+	    s.c0 = s.c1 = s.c2 = s.a = s.g = null;
+	}
+
+	/**
+	 * Copy part of <code>from</code> to new surface.
+	 */
+	Surface copy(Surface from, Rectangle r) {
+	    Surface s = surface(r);
+	    for (int y = r.y; y < r.y + r.height; y++) {
+		int src = from.offset(r.x, y);
+		int dst = s.offset(r.x, y);
+		System.arraycopy(from.c0, src, s.c0, dst, r.width);
+		System.arraycopy(from.c1, src, s.c1, dst, r.width);
+		System.arraycopy(from.c2, src, s.c2, dst, r.width);
+		System.arraycopy(from.a, src, s.a, dst, r.width);
+	    }
+	    return s;
+	}
+
+	/**
+	 * Render group over <code>backdrop</code> inside of <code>clip</code>.
+	 * 
+	 * @return group color and group alpha (without backdrop) or null if
+	 *         group is empty
+	 */
+	Surface render(TransparencyGroup group, Surface backdrop, Rectangle clip) {
+	    Rectangle bbox = group.getBounds().intersection(clip);
+	    if (bbox.isEmpty()) {
+		return null;
+	    }
+	    int size = bbox.width * bbox.height;
+	    Surface s;
+	    if (group.isolated) {
+		s = surface(bbox);
+		Arrays.fill(s.c0, 0, size, 0f);
+		Arrays.fill(s.c1, 0, size, 0f);
+		Arrays.fill(s.c2, 0, size, 0f);
+		Arrays.fill(s.a, 0, size, 0f);
+	    } else {
+		s = copy(backdrop, bbox);
+		s.g = take(size);
+		Arrays.fill(s.g, 0, size, 0f);
+	    }
+	    // knockout elements are composed over initial backdrop, for
+	    // isolated group it is transparent and needs no buffer
+	    Surface initial = null;
+	    if (group.knockout && !group.isolated) {
+		initial = copy(s, bbox);
+	    }
+
+	    for (Element e : group.elements) {
+		// soft mask could be set after element was added
+		checkSoftMask(e.composite);
+		if (e.composite.getAlpha() == 0) {
+		    continue;
+		}
+		Rectangle r = e.getBounds().intersection(bbox);
+		if (r.isEmpty()) {
+		    continue;
+		}
+		if (e.group != null) {
+		    Surface base = group.knockout ? initial : s;
+		    if (group.knockout && group.isolated) {
+			base = null;
+		    }
+		    Surface child;
+		    if (base == null && !e.group.isolated) {
+			// non-isolated group over transparent backdrop
+			Surface transparent = surface(r);
+			int n = r.width * r.height;
+			Arrays.fill(transparent.c0, 0, n, 0f);
+			Arrays.fill(transparent.c1, 0, n, 0f);
+			Arrays.fill(transparent.c2, 0, n, 0f);
+			Arrays.fill(transparent.a, 0, n, 0f);
+			child = render(e.group, transparent, r);
+			release(transparent);
+		    } else {
+			child = render(e.group, base, r);
+		    }
+		    if (child != null) {
+			compose(s, initial, null, child, e.composite, r, group.knockout);
+			release(child);
+		    }
+		} else {
+		    Raster raster = e.raster;
+		    Raster part = raster.createChild(raster.getMinX() + r.x - e.x, raster.getMinY() + r.y - e.y, r.width, r.height, 0, 0, null);
+		    compose(s, initial, RasterRows.create(part), null, e.composite, r, group.knockout);
+		}
+	    }
+
+	    if (initial != null) {
+		release(initial);
+	    }
+	    if (!group.isolated) {
+		removeBackdrop(s, backdrop);
+	    }
+	    return s;
+	}
+
+	/**
+	 * Compose raster or surface over <code>s</code> inside of
+	 * <code>r</code>.
+	 * 
+	 * @param initial
+	 *            initial backdrop of knockout group, null if group is
+	 *            isolated
+	 */
+	void compose(Surface s, Surface initial, RasterRows rows, Surface source, IComposite composite, Rectangle r, boolean knockout) {
+	    final float alpha = composite.getAlpha();
+	    final boolean normal = composite.getType() == CompositeType.NORMAL;
+	    final boolean srcHasAlpha = rows == null || rows.hasAlpha;
+	    final Composer composer = PDF_CompositeContext.rowComposer(composite.getComposer(), false);
+	    final float[] g = s.g;
+	    final int w = r.width;
+
+	    for (int y = r.y; y < r.y + r.height; y++) {
+		if (rows != null) {
+		    rows.getRow(y - r.y, w, src0, src1, src2, src3);
+		} else {
+		    source.getRow(source.offset(r.x, y), w, src0, src1, src2, src3);
+		}
+		int offset = s.offset(r.x, y);
+		if (!knockout) {
+		    s.getRow(offset, w, in0, in1, in2, in3);
+		} else if (initial != null) {
+		    initial.getRow(offset, w, in0, in1, in2, in3);
+		} else {
+		    Arrays.fill(in0, 0, w, 0f);
+		    Arrays.fill(in1, 0, w, 0f);
+		    Arrays.fill(in2, 0, w, 0f);
+		    Arrays.fill(in3, 0, w, 0f);
+		}
+
+		composer.composeRow(src0, src1, src2, in0, in1, in2, out0, out1, out2, 0, w);
+		// in knockout group shape of element is applied below, so only
+		// constant alpha is used for blending
+		PDF_CompositeContext.blendRow(src0, src1, src2, src3, in0, in1, in2, in3, out0, out1, out2, out3, srcHasAlpha && !knockout, true, alpha,
+			w);
+		if (srcHasAlpha && !knockout) {
+		    PDF_CompositeContext.replaceSpecial(src0, src1, src2, src3, in0, in1, in2, in3, out0, out1, out2, out3, alpha, normal, w);
+		}
+
+		if (!knockout) {
+		    s.setRow(offset, w, out0, out1, out2, out3);
+		    if (g != null) {
+			for (int x = 0; x < w; x++) {
+			    float as = srcHasAlpha ? src3[x] * alpha : alpha;
+			    float ag = g[offset + x];
+			    g[offset + x] = ag + as - ag * as;
+			}
+		    }
+		} else {
+		    // shape of element replaces previous result
+		    for (int x = 0; x < w; x++) {
+			float fs = srcHasAlpha ? src3[x] : 1f;
+			if (fs == 0) {
+			    continue;
+			}
+			int i = offset + x;
+			float fb = 1 - fs;
+			float pa = fb * s.a[i];
+			float ta = fs * out3[x];
+			float ar = pa + ta;
+			if (ar > 0) {
+			    s.c0[i] = (pa * s.c0[i] + ta * out0[x]) / ar;
+			    s.c1[i] = (pa * s.c1[i] + ta * out1[x]) / ar;
+			    s.c2[i] = (pa * s.c2[i] + ta * out2[x]) / ar;
+			}
+			s.a[i] = ar;
+			if (g != null) {
+			    g[i] = fb * g[i] + fs * alpha;
+			}
+		    }
+		}
+	    }
+	}
+
+	/**
+	 * Remove backdrop contribution from non-isolated group:
+	 * <p>
+	 * C = Cn + (Cn - C0) * (a0 / ag - a0)
+	 * <p>
+	 * Group alpha replaces alpha of surface.
+	 */
+	void removeBackdrop(Surface s, Surface backdrop) {
+	    float[] g = s.g;
+	    for (int y = s.y; y < s.y + s.height; y++) {
+		int offset = s.offset(s.x, y);
+		int b = backdrop.offset(s.x, y);
+		for (int x = 0; x < s.width; x++, offset++, b++) {
+		    float ag = g[offset];
+		    if (ag == 0) {
+			continue;
+		    }
+		    float a0 = backdrop.a[b];
+		    float k = a0 / ag - a0;
+		    s.c0[offset] = clamp(s.c0[offset] + (s.c0[offset] - backdrop.c0[b]) * k);
+		    s.c1[offset] = clamp(s.c1[offset] + (s.c1[offset] - backdrop.c1[b]) * k);
+		    s.c2[offset] = clamp(s.c2[offset] + (s.c2[offset] - backdrop.c2[b]) * k);
+		}
+	    }
+	    float[] a = s.a;
+	    s.a = g;
+	    s.g = null;
+	    release(a);
+	}
+
+	private static float clamp(float f) {
+	    if (f < 0) {
+		return 0;
+	    }
+	    if (f > 1) {
+		return 1;
+	    }
+	    return f;
+	}
+    }
+}
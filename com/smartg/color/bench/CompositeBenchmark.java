@@ -0,0 +1,349 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color.bench;
+
+import java.awt.CompositeContext;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.WritableRaster;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import com.smartg.color.Composer;
+import com.smartg.color.CompositeType;
+import com.smartg.color.IComposite;
+
+/**
+ * Throughput benchmark of IComposite for every CompositeType, common raster
+ * layouts and image sizes. Prints megapixels per second and bytes allocated
+ * per compose() call.
+ * <p>
+ * Usage: <code>java com.smartg.color.bench.CompositeBenchmark [options]</code>
+ * <ul>
+ * <li>-modes NORMAL,MULTIPLY,... (default: all)</li>
+ * <li>-layouts INT_ARGB,INT_ARGB_PRE,3BYTE_BGR,BYTE_GRAY,USHORT (default: all)</li>
+ * <li>-sizes 256,1024 (default: 256,1024)</li>
+ * <li>-warmup n, -iterations n (default: 10, 10)</li>
+ * <li>-parallel (default: single thread, so allocation can be measured)</li>
+ * <li>-kernels: measure only blend functions on rows of given sizes,
+ * Composer.composeRow() against compose() called per pixel</li>
+ * </ul>
+ * Allocation is measured with com.sun.management.ThreadMXBean, it is shown
+ * as -1 if JVM doesn't support it. First line tells if vector backend of
+ * separable blend modes is used.
+ */
+public class CompositeBenchmark {
+
+    enum Layout {
+	INT_ARGB, INT_ARGB_PRE, _3BYTE_BGR("3BYTE_BGR"), BYTE_GRAY, USHORT;
+
+	final String label;
+
+	Layout() {
+	    this.label = name();
+	}
+
+	Layout(String label) {
+	    this.label = label;
+	}
+
+	static Layout forLabel(String label) {
+	    for (Layout layout : values()) {
+		if (layout.label.equalsIgnoreCase(label)) {
+		    return layout;
+		}
+	    }
+	    throw new IllegalArgumentException("Unknown layout: " + label);
+	}
+
+	BufferedImage create(int size) {
+	    switch (this) {
+	    case INT_ARGB:
+		return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB);
+	    case INT_ARGB_PRE:
+		return new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB_PRE);
+	    case _3BYTE_BGR:
+		return new BufferedImage(size, size, BufferedImage.TYPE_3BYTE_BGR);
+	    case BYTE_GRAY:
+		return new BufferedImage(size, size, BufferedImage.TYPE_BYTE_GRAY);
+	    default:
+		// 16 bit RGBA
+		ColorModel cm = new ComponentColorModel(ColorSpace.getInstance(ColorSpace.CS_sRGB), true, false, Transparency.TRANSLUCENT,
+			DataBuffer.TYPE_USHORT);
+		WritableRaster raster = cm.createCompatibleWritableRaster(size, size);
+		return new BufferedImage(cm, raster, false, null);
+	    }
+	}
+    }
+
+    private List<CompositeType> modes = new ArrayList<CompositeType>();
+    private List<Layout> layouts = new ArrayList<Layout>();
+    private int[] sizes = { 256, 1024 };
+    private int warmup = 10;
+    private int iterations = 10;
+    private boolean parallel;
+    private boolean kernels;
+
+    private final ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+
+    public static void main(String[] args) {
+	CompositeBenchmark benchmark = new CompositeBenchmark();
+	benchmark.parse(args);
+	benchmark.run();
+    }
+
+    private void parse(String[] args) {
+	for (int i = 0; i < args.length; i++) {
+	    String arg = args[i];
+	    if (arg.equals("-modes")) {
+		for (String s : args[++i].split(",")) {
+		    modes.add(CompositeType.valueOf(s.trim().toUpperCase(Locale.ENGLISH)));
+		}
+	    } else if (arg.equals("-layouts")) {
+		for (String s : args[++i].split(",")) {
+		    layouts.add(Layout.forLabel(s.trim()));
+		}
+	    } else if (arg.equals("-sizes")) {
+		String[] s = args[++i].split(",");
+		sizes = new int[s.length];
+		for (int k = 0; k < s.length; k++) {
+		    sizes[k] = Integer.parseInt(s[k].trim());
+		}
+	    } else if (arg.equals("-warmup")) {
+		warmup = Integer.parseInt(args[++i]);
+	    } else if (arg.equals("-iterations")) {
+		iterations = Integer.parseInt(args[++i]);
+	    } else if (arg.equals("-parallel")) {
+		parallel = true;
+	    } else if (arg.equals("-kernels")) {
+		kernels = true;
+	    } else {
+		throw new IllegalArgumentException("Unknown option: " + arg);
+	    }
+	}
+	if (modes.isEmpty()) {
+	    for (CompositeType type : CompositeType.values()) {
+		modes.add(type);
+	    }
+	}
+	if (layouts.isEmpty()) {
+	    for (Layout layout : Layout.values()) {
+		layouts.add(layout);
+	    }
+	}
+    }
+
+    private void run() {
+	System.out.println("# separable kernels: " + (Composer.isVectorized() ? "jdk.incubator.vector" : "scalar"));
+	if (kernels) {
+	    runKernels();
+	    return;
+	}
+	System.out.printf("%-12s %-13s %6s %10s %12s%n", "mode", "layout", "size", "MP/s", "bytes/op");
+	for (int size : sizes) {
+	    for (Layout layout : layouts) {
+		BufferedImage src = layout.create(size);
+		BufferedImage backdrop = layout.create(size);
+		BufferedImage dst = layout.create(size);
+		fill(src, 1);
+		fill(backdrop, 2);
+		for (CompositeType mode : modes) {
+		    measure(mode, layout, src, backdrop, dst);
+		}
+	    }
+	}
+    }
+
+    /**
+     * Every compose() call gets same input: <code>dst</code> is restored from
+     * untouched <code>backdrop</code> before each call, outside of measured
+     * time and allocation.
+     */
+    private void measure(CompositeType mode, Layout layout, BufferedImage src, BufferedImage backdrop, BufferedImage dst) {
+	IComposite composite = new IComposite(mode, 0.8f);
+	if (!parallel) {
+	    composite.setParallelThreshold(Integer.MAX_VALUE);
+	}
+	ColorModel srcCM = src.getColorModel();
+	ColorModel dstCM = dst.getColorModel();
+	WritableRaster srcRaster = src.getRaster();
+	WritableRaster dstRaster = dst.getRaster();
+	DataBuffer original = backdrop.getRaster().getDataBuffer();
+
+	for (int i = 0; i < warmup; i++) {
+	    restore(original, dstRaster.getDataBuffer());
+	    compose(composite, srcCM, dstCM, srcRaster, dstRaster);
+	}
+
+	long nanos = 0;
+	long bytes = 0;
+	for (int i = 0; i < iterations; i++) {
+	    restore(original, dstRaster.getDataBuffer());
+	    long bytes0 = allocatedBytes();
+	    long t0 = System.nanoTime();
+	    compose(composite, srcCM, dstCM, srcRaster, dstRaster);
+	    nanos += System.nanoTime() - t0;
+	    bytes += allocatedBytes() - bytes0;
+	}
+
+	double pixels = (double) src.getWidth() * src.getHeight() * iterations;
+	double mps = pixels / (nanos / 1e3);
+	long bytesPerOp = allocatedBytes() < 0 ? -1 : bytes / iterations;
+	System.out.printf(Locale.ENGLISH, "%-12s %-13s %6d %10.1f %12d%n", mode, layout.label, src.getWidth(), mps, bytesPerOp);
+    }
+
+    private void runKernels() {
+	System.out.printf("%-12s %6s %10s %12s%n", "mode", "row", "row MP/s", "pixel MP/s");
+	for (int size : sizes) {
+	    Random random = new Random(size);
+	    float[][] src = new float[3][size];
+	    float[][] dst = new float[3][size];
+	    float[][] res = new float[3][size];
+	    for (int c = 0; c < 3; c++) {
+		for (int i = 0; i < size; i++) {
+		    src[c][i] = random.nextInt(256) / 255f;
+		    dst[c][i] = random.nextInt(256) / 255f;
+		}
+	    }
+	    for (CompositeType mode : modes) {
+		Composer composer = new IComposite(mode, 1f).getComposer();
+		int[] s = new int[3];
+		int[] d = new int[3];
+		float[] r = new float[3];
+		// best of all iterations, rows are too short for single measurement
+		long row = Long.MAX_VALUE;
+		long pixel = Long.MAX_VALUE;
+		for (int k = 0; k < warmup + iterations; k++) {
+		    long t0 = System.nanoTime();
+		    composer.composeRow(src[0], src[1], src[2], dst[0], dst[1], dst[2], res[0], res[1], res[2], 0, size);
+		    long t1 = System.nanoTime();
+		    for (int i = 0; i < size; i++) {
+			for (int c = 0; c < 3; c++) {
+			    s[c] = (int) (src[c][i] * 255 + 0.5f);
+			    d[c] = (int) (dst[c][i] * 255 + 0.5f);
+			}
+			composer.compose(s, d, r);
+			res[0][i] = r[0];
+			res[1][i] = r[1];
+			res[2][i] = r[2];
+		    }
+		    long t2 = System.nanoTime();
+		    if (k >= warmup) {
+			row = Math.min(row, t1 - t0);
+			pixel = Math.min(pixel, t2 - t1);
+		    }
+		}
+		System.out.printf(Locale.ENGLISH, "%-12s %6d %10.1f %12.1f%n", mode, size, size / (row / 1e3), size / (pixel / 1e3));
+	    }
+	}
+    }
+
+    /**
+     * Copy samples without allocation, buffers must have same type and size.
+     */
+    private static void restore(DataBuffer from, DataBuffer to) {
+	switch (from.getDataType()) {
+	case DataBuffer.TYPE_INT:
+	    int[] ints = ((DataBufferInt) from).getData();
+	    System.arraycopy(ints, 0, ((DataBufferInt) to).getData(), 0, ints.length);
+	    break;
+	case DataBuffer.TYPE_BYTE:
+	    byte[] bytes = ((DataBufferByte) from).getData();
+	    System.arraycopy(bytes, 0, ((DataBufferByte) to).getData(), 0, bytes.length);
+	    break;
+	case DataBuffer.TYPE_USHORT:
+	    short[] shorts = ((DataBufferUShort) from).getData();
+	    System.arraycopy(shorts, 0, ((DataBufferUShort) to).getData(), 0, shorts.length);
+	    break;
+	default:
+	    throw new IllegalArgumentException("Unsupported data type: " + from.getDataType());
+	}
+    }
+
+    private static void compose(IComposite composite, ColorModel srcCM, ColorModel dstCM, WritableRaster src, WritableRaster dst) {
+	CompositeContext context = composite.createContext(srcCM, dstCM, null);
+	try {
+	    context.compose(src, dst, dst);
+	} finally {
+	    context.dispose();
+	}
+    }
+
+    private long allocatedBytes() {
+	if (threadBean instanceof com.sun.management.ThreadMXBean) {
+	    com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threadBean;
+	    if (bean.isThreadAllocatedMemorySupported() && bean.isThreadAllocatedMemoryEnabled()) {
+		return bean.getThreadAllocatedBytes(Thread.currentThread().getId());
+	    }
+	}
+	return -1;
+    }
+
+    /**
+     * Random samples, alpha is random too, so transparent, opaque and
+     * translucent pixels are mixed.
+     */
+    private static void fill(BufferedImage image, long seed) {
+	Random random = new Random(seed);
+	WritableRaster raster = image.getRaster();
+	int numBands = raster.getNumBands();
+	int[] max = new int[numBands];
+	for (int b = 0; b < numBands; b++) {
+	    max[b] = (1 << raster.getSampleModel().getSampleSize(b)) - 1;
+	}
+	int width = raster.getWidth();
+	int[] samples = new int[width];
+	for (int y = 0; y < raster.getHeight(); y++) {
+	    for (int b = 0; b < numBands; b++) {
+		for (int x = 0; x < width; x++) {
+		    samples[x] = random.nextInt(max[b] + 1);
+		}
+		raster.setSamples(0, y, width, 1, b, samples);
+	    }
+	}
+	if (image.isAlphaPremultiplied()) {
+	    // samples may not exceed alpha
+	    image.coerceData(false);
+	    image.coerceData(true);
+	}
+    }
+}
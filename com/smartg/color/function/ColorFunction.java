@@ -43,8 +43,9 @@ import com.smartg.function.misc.Range;
 public abstract class ColorFunction extends Function {
 
     /**
-     * Create ColorFunction according to CompositeType. Non-separable function
-     * are not supported (HUE, COLOR, LUMINOSITY and SATURATION).
+     * Create ColorFunction according to CompositeType. Functions of
+     * non-separable modes (HUE, COLOR, LUMINOSITY and SATURATION) have 6
+     * inputs and 3 outputs.
      * 
      * @param type
      * @return
@@ -54,7 +55,7 @@ public abstract class ColorFunction extends Function {
 	case ADD:
 	    return new Add();
 	case COLOR:
-	    break;
+	    return new Color();
 	case COLORBURN:
 	    return new ColorBurn();
 	case COLORDODGE:
@@ -68,11 +69,11 @@ public abstract class ColorFunction extends Function {
 	case HARDLIGHT:
 	    return new Hardlight();
 	case HUE:
-	    break;
+	    return new Hue();
 	case LIGHTEN:
 	    return new Lighten();
 	case LUMINOSITY:
-	    break;
+	    return new Luminosity();
 	case MULTIPLY:
 	    return new Multiply();
 	case NORMAL:
@@ -80,7 +81,7 @@ public abstract class ColorFunction extends Function {
 	case OVERLAY:
 	    return new Overlay();
 	case SATURATION:
-	    break;
+	    return new Saturation();
 	case SCREEN:
 	    return new Screen();
 	case SOFTLIGHT:
@@ -101,6 +102,55 @@ public abstract class ColorFunction extends Function {
 	super(domain, range);
     }
 
+    /**
+     * Compute values for <code>length</code> pairs of backdrop and source
+     * values starting at <code>offset</code>. Result is same as calling
+     * compute(output, cb[i], cs[i]) for every pair, but no arrays are
+     * allocated. <code>out</code> may be same array as <code>cb</code> or
+     * <code>cs</code>.
+     * <p>
+     * Default implementation calls compute() for every pair, subclasses
+     * override it with loops which can be vectorized by JIT.
+     */
+    public void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	float[] input = new float[2];
+	float[] output = new float[1];
+	int end = offset + length;
+	for (int i = offset; i < end; i++) {
+	    input[0] = cb[i];
+	    input[1] = cs[i];
+	    compute(output, input);
+	    out[i] = output[0];
+	}
+    }
+
+    /**
+     * Interleaved version of computeRow: <code>cb</code>, <code>cs</code> and
+     * <code>out</code> contain <code>length</code> RGB pixels starting at
+     * sample <code>offset</code>. <code>out</code> may be same array as
+     * <code>cb</code> or <code>cs</code>.
+     * <p>
+     * Default implementation applies function to every sample, non-separable
+     * functions override it.
+     */
+    public void computeRGB(float[] cb, float[] cs, float[] out, int offset, int length) {
+	compute(cb, cs, out, offset, 3 * length);
+    }
+
+    /**
+     * Compute <code>length</code> pixels of planar RGB rows starting at
+     * <code>offset</code>. Result arrays may be same as input arrays.
+     * <p>
+     * Default implementation applies function to every channel, non-separable
+     * functions override it.
+     */
+    public void computeRow(float[] cbR, float[] cbG, float[] cbB, float[] csR, float[] csG, float[] csB, float[] outR, float[] outG,
+	    float[] outB, int offset, int length) {
+	compute(cbR, csR, outR, offset, length);
+	compute(cbG, csG, outG, offset, length);
+	compute(cbB, csB, outB, offset, length);
+    }
+
     protected final float multiply(float cb, float cs) {
 	return cb * cs;
     }
@@ -128,6 +178,15 @@ public abstract class ColorFunction extends Function {
 		output[0] = 0;
 	    }
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float s = cs[i];
+		out[i] = s > 0 ? 1 - Math.min(1, (1 - cb[i]) / s) : 0;
+	    }
+	}
     }
 
     static class ColorDodge extends ColorFunction {
@@ -142,6 +201,15 @@ public abstract class ColorFunction extends Function {
 		output[0] = 1;
 	    }
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float s = cs[i];
+		out[i] = s < 1 ? Math.min(1, cb[i] / (1 - s)) : 1;
+	    }
+	}
     }
 
     static class Difference extends ColorFunction {
@@ -152,6 +220,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = Math.abs(cb - cs);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = Math.abs(cb[i] - cs[i]);
+	    }
+	}
     }
 
     static class Exclusion extends ColorFunction {
@@ -163,6 +239,17 @@ public abstract class ColorFunction extends Function {
 	    float m = cs * cb;
 	    output[0] = cb + cs - (m + m);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float b = cb[i];
+		float s = cs[i];
+		float m = s * b;
+		out[i] = b + s - (m + m);
+	    }
+	}
     }
 
     static class Hardlight extends ColorFunction {
@@ -173,6 +260,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = hardlight(cb, cs);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = hardlight(cb[i], cs[i]);
+	    }
+	}
     }
 
     static class Normal extends ColorFunction {
@@ -181,6 +276,14 @@ public abstract class ColorFunction extends Function {
 	public void compute(float[] output, float... input) {
 	    output[0] = input[0];
 	}
+
+	@Override
+	public void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = cb[i];
+	    }
+	}
     }
 
     static class Overlay extends ColorFunction {
@@ -191,6 +294,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = hardlight(cs, cb);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = hardlight(cs[i], cb[i]);
+	    }
+	}
     }
 
     static class Darken extends ColorFunction {
@@ -201,6 +312,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = Math.min(cs, cb);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = Math.min(cs[i], cb[i]);
+	    }
+	}
     }
 
     static class Lighten extends ColorFunction {
@@ -211,6 +330,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = Math.max(cs, cb);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = Math.max(cs[i], cb[i]);
+	    }
+	}
     }
 
     static class Multiply extends ColorFunction {
@@ -221,6 +348,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = cs * cb;
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = cs[i] * cb[i];
+	    }
+	}
     }
 
     static class Screen extends ColorFunction {
@@ -231,6 +366,16 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = cs + cb - cs * cb;
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float b = cb[i];
+		float s = cs[i];
+		out[i] = s + b - s * b;
+	    }
+	}
     }
 
     static class Softlight extends ColorFunction {
@@ -251,6 +396,20 @@ public abstract class ColorFunction extends Function {
 		output[0] = cb + (cs + cs - 1) * (dx - cb);
 	    }
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float b = cb[i];
+		float s = cs[i];
+		// both branches are computed, so loop has no jumps
+		float d = b > 0.25f ? (float) Math.sqrt(b) : ((16 * b - 12) * b + 4) * b;
+		float low = b - (1 - (s + s)) * (b - b * b);
+		float high = b + (s + s - 1) * (d - b);
+		out[i] = s <= 0.5f ? low : high;
+	    }
+	}
     }
 
     static class Distance extends ColorFunction {
@@ -261,6 +420,16 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = (float) Math.sqrt(cb * cb + cs * cs);
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		float b = cb[i];
+		float s = cs[i];
+		out[i] = (float) Math.sqrt(b * b + s * s);
+	    }
+	}
     }
 
     static class Add extends ColorFunction {
@@ -271,6 +440,14 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = cb + cs;
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = cb[i] + cs[i];
+	    }
+	}
     }
 
     static class Sub extends ColorFunction {
@@ -281,5 +458,161 @@ public abstract class ColorFunction extends Function {
 	    float cs = input[1];
 	    output[0] = cb - cs;
 	}
+
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    int end = offset + length;
+	    for (int i = offset; i < end; i++) {
+		out[i] = cb[i] - cs[i];
+	    }
+	}
+    }
+
+    /**
+     * Base class of non-separable functions. Inputs are backdrop (r, g, b)
+     * and source (r, g, b), outputs are blended (r, g, b). Functions follow
+     * PDF definitions of HUE, SATURATION, COLOR and LUMINOSITY (Composer of
+     * IComposite swaps roles of backdrop and source for HUE and COLOR).
+     */
+    abstract static class NonSeparable extends ColorFunction {
+
+	NonSeparable() {
+	    super(new Range[] { new Range(0, 1), new Range(0, 1), new Range(0, 1), new Range(0, 1), new Range(0, 1), new Range(0, 1) },
+		    new Range[] { new Range(0, 1), new Range(0, 1), new Range(0, 1) });
+	}
+
+	/**
+	 * Non-separable functions can't be applied to single channels.
+	 * 
+	 * @throws UnsupportedOperationException
+	 *             always, use computeRGB or computeRow instead
+	 */
+	@Override
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    throw new UnsupportedOperationException("Non-separable function, use computeRGB or computeRow");
+	}
+
+	@Override
+	public final void computeRGB(float[] cb, float[] cs, float[] out, int offset, int length) {
+	    for (int i = offset, end = offset + 3 * length; i < end; i += 3) {
+		compute(cb[i], cb[i + 1], cb[i + 2], cs[i], cs[i + 1], cs[i + 2], out, i, out, i + 1, out, i + 2);
+	    }
+	}
+
+	@Override
+	public final void compute(float[] output, float... input) {
+	    compute(input[0], input[1], input[2], input[3], input[4], input[5], output, 0, output, 1, output, 2);
+	}
+
+	@Override
+	public final void computeRow(float[] cbR, float[] cbG, float[] cbB, float[] csR, float[] csG, float[] csB, float[] outR, float[] outG,
+		float[] outB, int offset, int length) {
+	    for (int i = offset, end = offset + length; i < end; i++) {
+		compute(cbR[i], cbG[i], cbB[i], csR[i], csG[i], csB[i], outR, i, outG, i, outB, i);
+	    }
+	}
+
+	/**
+	 * Blend one pixel, results are written to r[ri], g[gi] and b[bi].
+	 */
+	abstract void compute(float br, float bg, float bb, float sr, float sg, float sb, float[] r, int ri, float[] g, int gi, float[] b, int bi);
+
+	/**
+	 * SetLum(SetSat(color, sat), lum) including ClipColor.
+	 */
+	static void setSatLum(float cr, float cg, float cb, float sat, float lum, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    float n = Math.min(cr, Math.min(cg, cb));
+	    float x = Math.max(cr, Math.max(cg, cb));
+	    if (x > n) {
+		float k = sat / (x - n);
+		cr = (cr - n) * k;
+		cg = (cg - n) * k;
+		cb = (cb - n) * k;
+	    } else {
+		cr = cg = cb = 0;
+	    }
+	    setLum(cr, cg, cb, lum, r, ri, g, gi, b, bi);
+	}
+
+	/**
+	 * SetLum(color, lum) including ClipColor.
+	 */
+	static void setLum(float cr, float cg, float cb, float lum, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    float d = lum - lum(cr, cg, cb);
+	    cr += d;
+	    cg += d;
+	    cb += d;
+
+	    float l = lum(cr, cg, cb);
+	    float n = Math.min(cr, Math.min(cg, cb));
+	    float x = Math.max(cr, Math.max(cg, cb));
+	    if (n < 0) {
+		float k = l / (l - n);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    if (x > 1) {
+		float k = (1 - l) / (x - l);
+		cr = l + (cr - l) * k;
+		cg = l + (cg - l) * k;
+		cb = l + (cb - l) * k;
+	    }
+	    r[ri] = cr;
+	    g[gi] = cg;
+	    b[bi] = cb;
+	}
+
+	static float lum(float r, float g, float b) {
+	    return 0.3f * r + 0.59f * g + 0.11f * b;
+	}
+
+	static float sat(float r, float g, float b) {
+	    return Math.max(r, Math.max(g, b)) - Math.min(r, Math.min(g, b));
+	}
+    }
+
+    /**
+     * SetLum(SetSat(Cs, Sat(Cb)), Lum(Cb))
+     */
+    static class Hue extends NonSeparable {
+
+	@Override
+	final void compute(float br, float bg, float bb, float sr, float sg, float sb, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    setSatLum(sr, sg, sb, sat(br, bg, bb), lum(br, bg, bb), r, ri, g, gi, b, bi);
+	}
+    }
+
+    /**
+     * SetLum(SetSat(Cb, Sat(Cs)), Lum(Cb))
+     */
+    static class Saturation extends NonSeparable {
+
+	@Override
+	final void compute(float br, float bg, float bb, float sr, float sg, float sb, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    setSatLum(br, bg, bb, sat(sr, sg, sb), lum(br, bg, bb), r, ri, g, gi, b, bi);
+	}
+    }
+
+    /**
+     * SetLum(Cs, Lum(Cb))
+     */
+    static class Color extends NonSeparable {
+
+	@Override
+	final void compute(float br, float bg, float bb, float sr, float sg, float sb, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    setLum(sr, sg, sb, lum(br, bg, bb), r, ri, g, gi, b, bi);
+	}
+    }
+
+    /**
+     * SetLum(Cb, Lum(Cs))
+     */
+    static class Luminosity extends NonSeparable {
+
+	@Override
+	final void compute(float br, float bg, float bb, float sr, float sg, float sb, float[] r, int ri, float[] g, int gi, float[] b, int bi) {
+	    setLum(br, bg, bb, lum(sr, sg, sb), r, ri, g, gi, b, bi);
+	}
     }
 }
@@ -53,7 +53,11 @@ public enum EColorFunction implements IFunction {
 	Softlight(new ColorFunction.Softlight()), //
 	Distance(new ColorFunction.Distance()), //
 	Add(new ColorFunction.Add()), //
-	Sub(new ColorFunction.Sub())//
+	Sub(new ColorFunction.Sub()), //
+	Hue(new ColorFunction.Hue()), //
+	Saturation(new ColorFunction.Saturation()), //
+	Color(new ColorFunction.Color()), //
+	Luminosity(new ColorFunction.Luminosity())//
 	;
 
 	private final ColorFunction sf;
@@ -69,16 +73,39 @@ public enum EColorFunction implements IFunction {
 		sf.compute(output, input);
 	}
 
+	/**
+	 * @see ColorFunction#compute(float[], float[], float[], int, int)
+	 */
+	public final void compute(float[] cb, float[] cs, float[] out, int offset, int length) {
+		sf.compute(cb, cs, out, offset, length);
+	}
+
+	/**
+	 * @see ColorFunction#computeRGB(float[], float[], float[], int, int)
+	 */
+	public final void computeRGB(float[] cb, float[] cs, float[] out, int offset, int length) {
+		sf.computeRGB(cb, cs, out, offset, length);
+	}
+
+	/**
+	 * @see ColorFunction#computeRow(float[], float[], float[], float[],
+	 *      float[], float[], float[], float[], float[], int, int)
+	 */
+	public final void computeRow(float[] cbR, float[] cbG, float[] cbB, float[] csR, float[] csG, float[] csB, float[] outR, float[] outG,
+			float[] outB, int offset, int length) {
+		sf.computeRow(cbR, cbG, cbB, csR, csG, csB, outR, outG, outB, offset, length);
+	}
+
 	public Range[] getInputDomain() {
 		return domain;
 	}
 
 	public int getNumInputs() {
-		return 2;
+		return sf.getNumInputs();
 	}
 
 	public int getNumOutputs() {
-		return 1;
+		return sf.getNumOutputs();
 	}
 
 	public Range[] getOutputRange() {
@@ -0,0 +1,99 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.util.Random;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure. Plane
+ * kernels must give same results with and without vector backend, run it also
+ * with vector folder compiled and <code>--add-modules jdk.incubator.vector</code>.
+ */
+public class ComposerTest {
+
+    static final CompositeType[] TYPES = { CompositeType.MULTIPLY, CompositeType.SCREEN, CompositeType.DARKEN, CompositeType.LIGHTEN,
+	    CompositeType.DIFFERENCE, CompositeType.EXCLUSION, CompositeType.ADD, CompositeType.SUB };
+
+    public static void main(String[] args) {
+	Random random = new Random(7);
+	float[] src = new float[1000];
+	float[] dst = new float[1000];
+	for (int i = 0; i < src.length; i++) {
+	    src[i] = random.nextFloat();
+	    dst[i] = random.nextFloat();
+	}
+	// special values
+	src[0] = 0;
+	dst[1] = 0;
+	src[2] = 1;
+	dst[3] = 1;
+
+	for (CompositeType type : TYPES) {
+	    Composer.Separable composer = (Composer.Separable) new IComposite(type, 1f).getComposer();
+	    // odd offset and length, so vector loop has head and tail
+	    int offset = 3;
+	    int length = src.length - 10;
+	    float[] res = new float[src.length];
+	    composer.composePlane(src, dst, res, offset, length);
+	    for (int i = 0; i < src.length; i++) {
+		float expected = i < offset || i >= offset + length ? 0 : expected(type, dst[i], src[i]);
+		if (Float.floatToIntBits(res[i]) != Float.floatToIntBits(expected)) {
+		    throw new AssertionError(type + " at " + i + ": " + res[i] + " instead of " + expected);
+		}
+	    }
+	}
+	System.out.println("ComposerTest passed, vectorized " + Composer.isVectorized());
+    }
+
+    static float expected(CompositeType type, float cb, float cs) {
+	switch (type) {
+	case MULTIPLY:
+	    return cb * cs;
+	case SCREEN:
+	    return cb + cs - (cb * cs);
+	case DARKEN:
+	    return Math.min(cs, cb);
+	case LIGHTEN:
+	    return Math.max(cs, cb);
+	case DIFFERENCE:
+	    return Math.abs(cs - cb);
+	case EXCLUSION:
+	    float m = cs * cb;
+	    return cb + cs - (m + m);
+	case ADD:
+	    return cb + cs;
+	case SUB:
+	    return Math.max(0f, cb - cs);
+	default:
+	    throw new IllegalArgumentException(type.toString());
+	}
+    }
+}
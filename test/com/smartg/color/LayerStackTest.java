@@ -0,0 +1,139 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ * <p>
+ * LayerStack must give same result as composing layers one after another.
+ */
+public class LayerStackTest {
+
+    static final int WIDTH = 150;
+    static final int HEIGHT = 110;
+
+    // tile rows are composed concurrently even on single processor
+    static final ForkJoinPool POOL = new ForkJoinPool(4);
+
+    public static void main(String[] args) {
+	int[] types = { BufferedImage.TYPE_INT_ARGB, BufferedImage.TYPE_INT_ARGB_PRE, BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB };
+	for (int type : types) {
+	    compare(type, null, 256);
+	    compare(type, null, 16);
+	    compare(type, new RenderingHints(IComposite.KEY_ARITHMETIC, IComposite.VALUE_ARITHMETIC_FIXED), 32);
+	}
+	POOL.shutdown();
+	System.out.println("LayerStackTest passed");
+    }
+
+    static void compare(int imageType, RenderingHints hints, int tileSize) {
+	Random random = new Random(imageType * 31 + tileSize);
+	BufferedImage backdrop = randomImage(random, imageType, WIDTH, HEIGHT);
+
+	IComposite masked = new IComposite(CompositeType.SCREEN, 0.9f);
+	masked.setSoftMask(new SoftMask(randomImage(random, BufferedImage.TYPE_BYTE_GRAY, WIDTH, HEIGHT).getRaster(), SoftMask.Type.LUMINOSITY));
+	IComposite lookup = new IComposite(CompositeType.OVERLAY, 0.7f);
+	lookup.setLookupMode(true);
+
+	IComposite[] composites = { new IComposite(CompositeType.NORMAL, 1f), new IComposite(CompositeType.MULTIPLY, 0.6f), masked, lookup,
+		new IComposite(CompositeType.HUE, 0.8f) };
+	BufferedImage[] images = new BufferedImage[composites.length];
+	int[][] positions = { { -20, -10 }, { 30, 20 }, { 0, 0 }, { 100, 60 }, { 10, 70 } };
+
+	LayerStack stack = new LayerStack();
+	stack.setTileSize(tileSize);
+	stack.setParallelThreshold(0);
+	stack.setForkJoinPool(POOL);
+	stack.setRenderingHints(hints);
+	for (int i = 0; i < composites.length; i++) {
+	    images[i] = randomImage(random, imageType == BufferedImage.TYPE_INT_RGB ? BufferedImage.TYPE_INT_ARGB : imageType, 80, 60);
+	    stack.addLayer(images[i].getRaster(), images[i].getColorModel(), composites[i], positions[i][0], positions[i][1]);
+	}
+
+	BufferedImage expected = copy(backdrop);
+	for (int i = 0; i < composites.length; i++) {
+	    composeLayer(images[i], composites[i], positions[i][0], positions[i][1], expected, hints);
+	}
+
+	BufferedImage actual = copy(backdrop);
+	stack.flatten(actual.getRaster(), actual.getColorModel());
+
+	int[] e = expected.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+	int[] a = actual.getRaster().getPixels(0, 0, WIDTH, HEIGHT, (int[]) null);
+	for (int i = 0; i < e.length; i++) {
+	    if (e[i] != a[i]) {
+		throw new AssertionError("image type " + imageType + ", tile size " + tileSize + ", hints " + hints + ": sample " + i
+			+ " expected " + e[i] + " but was " + a[i]);
+	    }
+	}
+    }
+
+    static void composeLayer(BufferedImage layer, IComposite composite, int x, int y, BufferedImage dst, RenderingHints hints) {
+	Rectangle r = new Rectangle(x, y, layer.getWidth(), layer.getHeight()).intersection(new Rectangle(0, 0, WIDTH, HEIGHT));
+	Raster src = layer.getRaster().createChild(r.x - x, r.y - y, r.width, r.height, r.x - x, r.y - y, null);
+	WritableRaster part = dst.getRaster().createWritableChild(r.x, r.y, r.width, r.height, r.x, r.y, null);
+	composite.createContext(layer.getColorModel(), dst.getColorModel(), hints).compose(src, part, part);
+    }
+
+    static BufferedImage randomImage(Random random, int type, int width, int height) {
+	BufferedImage image = new BufferedImage(width, height, type);
+	WritableRaster raster = image.getRaster();
+	int[] pixels = new int[width * height * raster.getNumBands()];
+	for (int i = 0; i < pixels.length; i++) {
+	    pixels[i] = random.nextInt(256);
+	}
+	if (image.getColorModel().isAlphaPremultiplied()) {
+	    // premultiplied samples may not exceed alpha
+	    int n = raster.getNumBands();
+	    for (int i = 0; i < pixels.length; i += n) {
+		for (int b = 0; b < n - 1; b++) {
+		    pixels[i + b] = Math.min(pixels[i + b], pixels[i + n - 1]);
+		}
+	    }
+	}
+	raster.setPixels(0, 0, width, height, pixels);
+	return image;
+    }
+
+    static BufferedImage copy(BufferedImage image) {
+	ColorModel cm = image.getColorModel();
+	return new BufferedImage(cm, image.copyData(null), cm.isAlphaPremultiplied(), null);
+    }
+}
@@ -0,0 +1,236 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ */
+public class RGB_ColorSpaceTest {
+
+    static final int COUNT = 4096;
+
+    public static void main(String[] args) {
+	RGB_ColorSpace[] spaces = { RGB_ColorSpace.get(RGB_ColorSpace.RGB_CS_Type.S_RGB),
+		RGB_ColorSpace.get(RGB_ColorSpace.RGB_CS_Type.ADOBE_RGB), RGB_ColorSpace.get(RGB_ColorSpace.RGB_CS_Type.PRO_PHOTO) };
+	for (RGB_ColorSpace cs : spaces) {
+	    int[] argb = randomPixels(cs.hashCode());
+	    bulkMatchesScalar(cs, argb);
+	    labAndLuvInputIsNotChanged(cs, argb);
+	    tableIsCloseToExact(cs);
+	}
+	System.out.println("RGB_ColorSpaceTest passed");
+    }
+
+    static int[] randomPixels(long seed) {
+	Random random = new Random(seed);
+	int[] argb = new int[COUNT];
+	for (int i = 0; i < COUNT; i++) {
+	    argb[i] = random.nextInt();
+	}
+	// black and white
+	argb[0] = 0xFF000000;
+	argb[1] = 0xFFFFFFFF;
+	return argb;
+    }
+
+    static void bulkMatchesScalar(RGB_ColorSpace cs, int[] argb) {
+	float[] X = new float[COUNT];
+	float[] Y = new float[COUNT];
+	float[] Z = new float[COUNT];
+	float[] c0 = new float[COUNT];
+	float[] c1 = new float[COUNT];
+	float[] c2 = new float[COUNT];
+	float[] dest = new float[3];
+
+	cs.rgb2xyz(argb, 0, COUNT, X, Y, Z, 0);
+	for (int i = 0; i < COUNT; i++) {
+	    int p = argb[i];
+	    cs.rgb2xyz((p >> 16) & 0xFF, (p >> 8) & 0xFF, p & 0xFF, dest);
+	    assertClose(dest, X[i], Y[i], Z[i], 1e-5f, cs.type + " rgb2xyz", i);
+	}
+
+	cs.xyz2rgb(X, Y, Z, 0, COUNT, c0, c1, c2, 0);
+	for (int i = 0; i < COUNT; i++) {
+	    cs.xyz2rgb(X[i], Y[i], Z[i], dest);
+	    if (!(Math.min(dest[0], Math.min(dest[1], dest[2])) >= 8)) {
+		// pure gamma is too steep near 0, rounding of float matrix is
+		// visible there (or linear value is slightly negative, which is NaN)
+		continue;
+	    }
+	    assertClose(dest, c0[i], c1[i], c2[i], 0.01f, cs.type + " xyz2rgb", i);
+	}
+
+	cs.xyz2lab(X, Y, Z, 0, COUNT, c0, c1, c2, 0);
+	for (int i = 0; i < COUNT; i++) {
+	    cs.xyz2lab(X[i], Y[i], Z[i], dest);
+	    assertClose(dest, c0[i], c1[i], c2[i], 0.01f, cs.type + " xyz2lab", i);
+	}
+
+	cs.xyz2luv(X, Y, Z, 0, COUNT, c0, c1, c2, 0);
+	for (int i = 0; i < COUNT; i++) {
+	    if (X[i] + Y[i] + Z[i] == 0) {
+		// u and v of black are undefined in scalar version
+		continue;
+	    }
+	    cs.xyz2luv(X[i], Y[i], Z[i], dest);
+	    assertClose(dest, c0[i], c1[i], c2[i], 0.01f, cs.type + " xyz2luv", i);
+	}
+    }
+
+    static void labAndLuvInputIsNotChanged(RGB_ColorSpace cs, int[] argb) {
+	float[] L = new float[COUNT];
+	float[] a = new float[COUNT];
+	float[] b = new float[COUNT];
+	int[] out = new int[COUNT];
+	float[] dest = new float[3];
+
+	cs.rgb2lab(argb, 0, COUNT, L, a, b, 0);
+	float[] L0 = L.clone();
+	float[] a0 = a.clone();
+	float[] b0 = b.clone();
+	cs.lab2rgb(L, a, b, 0, COUNT, out, 0);
+	if (!Arrays.equals(L0, L) || !Arrays.equals(a0, a) || !Arrays.equals(b0, b)) {
+	    throw new AssertionError(cs.type + " lab2rgb changed its input");
+	}
+	for (int i = 0; i < COUNT; i++) {
+	    cs.lab2rgb(L[i], a[i], b[i], dest);
+	    assertPixel(dest, out[i], cs.type + " lab2rgb", i);
+	}
+
+	cs.rgb2luv(argb, 0, COUNT, L, a, b, 0);
+	L0 = L.clone();
+	a0 = a.clone();
+	b0 = b.clone();
+	cs.luv2rgb(L, a, b, 0, COUNT, out, 0);
+	if (!Arrays.equals(L0, L) || !Arrays.equals(a0, a) || !Arrays.equals(b0, b)) {
+	    throw new AssertionError(cs.type + " luv2rgb changed its input");
+	}
+	for (int i = 0; i < COUNT; i++) {
+	    if (L[i] <= 0) {
+		if (out[i] != 0xFF000000) {
+		    throw new AssertionError(cs.type + " luv2rgb of black: " + Integer.toHexString(out[i]));
+		}
+		continue;
+	    }
+	    cs.luv2rgb(L[i], a[i], b[i], dest);
+	    assertPixel(dest, out[i], cs.type + " luv2rgb", i);
+	}
+    }
+
+    /**
+     * TABLE against EXACT for linear values from 2^-20 to 1.5, so both
+     * fallbacks (below GammaTables.ENCODE_TABLE_MIN and above 1) are covered.
+     */
+    static void tableIsCloseToExact(RGB_ColorSpace exact) {
+	RGB_ColorSpace table = exact.withTransferMode(RGB_ColorSpace.TransferMode.TABLE);
+	if (table.getTransferMode() != RGB_ColorSpace.TransferMode.TABLE || exact.getTransferMode() != RGB_ColorSpace.TransferMode.EXACT) {
+	    throw new AssertionError(exact.type + " withTransferMode");
+	}
+
+	float[] white = new float[3];
+	exact.rgb2xyz(255, 255, 255, white);
+	float[] dest = new float[3];
+	// exact result of smallest linear value which is interpolated
+	exact.xyz2rgb(white[0] * GammaTables.ENCODE_TABLE_MIN, white[1] * GammaTables.ENCODE_TABLE_MIN,
+		white[2] * GammaTables.ENCODE_TABLE_MIN, dest);
+	float low = Math.min(dest[0], Math.min(dest[1], dest[2])) * 0.99f;
+	float high = 255 * 1.001f;
+
+	Random random = new Random(exact.hashCode());
+	float[] X = new float[COUNT];
+	float[] Y = new float[COUNT];
+	float[] Z = new float[COUNT];
+	for (int i = 0; i < COUNT; i++) {
+	    float s = (float) Math.pow(2, -20 * random.nextDouble()) * 1.5f;
+	    X[i] = white[0] * s * (0.95f + 0.1f * random.nextFloat());
+	    Y[i] = white[1] * s * (0.95f + 0.1f * random.nextFloat());
+	    Z[i] = white[2] * s * (0.95f + 0.1f * random.nextFloat());
+	}
+
+	float[] e = new float[3];
+	float[] t = new float[3];
+	for (int i = 0; i < COUNT; i++) {
+	    exact.xyz2rgb(X[i], Y[i], Z[i], e);
+	    table.xyz2rgb(X[i], Y[i], Z[i], t);
+	    for (int c = 0; c < 3; c++) {
+		assertTable(e[c], t[c], low, high, exact.type + " xyz2rgb", i);
+	    }
+	}
+
+	float[][] be = { new float[COUNT], new float[COUNT], new float[COUNT] };
+	float[][] bt = { new float[COUNT], new float[COUNT], new float[COUNT] };
+	exact.xyz2rgb(X, Y, Z, 0, COUNT, be[0], be[1], be[2], 0);
+	table.xyz2rgb(X, Y, Z, 0, COUNT, bt[0], bt[1], bt[2], 0);
+	for (int i = 0; i < COUNT; i++) {
+	    for (int c = 0; c < 3; c++) {
+		assertTable(be[c][i], bt[c][i], low, high, exact.type + " bulk xyz2rgb", i);
+	    }
+	}
+    }
+
+    /**
+     * Interpolated value differs by less than 0.001 (0 - 255 scale), values
+     * computed by fallback are same.
+     */
+    static void assertTable(float exact, float table, float low, float high, String message, int index) {
+	if (exact < low || exact > high || Float.isNaN(exact)) {
+	    if (Float.floatToIntBits(exact) != Float.floatToIntBits(table)) {
+		throw new AssertionError(message + " fallback is " + table + " instead of " + exact + " at " + index);
+	    }
+	} else if (!(Math.abs(exact - table) < 0.001f)) {
+	    throw new AssertionError(message + " table is " + table + " instead of " + exact + " at " + index);
+	}
+    }
+
+    static void assertClose(float[] expected, float c0, float c1, float c2, float tolerance, String message, int index) {
+	float d = Math.max(Math.abs(expected[0] - c0), Math.max(Math.abs(expected[1] - c1), Math.abs(expected[2] - c2)));
+	if (!(d <= tolerance)) {
+	    throw new AssertionError(message + " differs by " + d + " at " + index);
+	}
+    }
+
+    /**
+     * Scalar result (0 - 255, not clamped) against packed pixel, 1 is allowed
+     * because bulk methods compute in float.
+     */
+    static void assertPixel(float[] expected, int pixel, String message, int index) {
+	int[] samples = { (pixel >> 16) & 0xFF, (pixel >> 8) & 0xFF, pixel & 0xFF };
+	for (int c = 0; c < 3; c++) {
+	    int e = Math.max(0, Math.min(255, Math.round(expected[c])));
+	    if (Math.abs(e - samples[c]) > 1) {
+		throw new AssertionError(message + " sample " + c + " is " + samples[c] + " instead of " + e + " at " + index);
+	    }
+	}
+    }
+}
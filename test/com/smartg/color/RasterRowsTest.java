@@ -0,0 +1,286 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferInt;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.Arrays;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ */
+public class RasterRowsTest {
+
+    public static void main(String[] args) {
+	roundTrip(DataBuffer.TYPE_BYTE);
+	roundTrip(DataBuffer.TYPE_USHORT);
+	rows8(DataBuffer.TYPE_USHORT);
+	rows8(DataBuffer.TYPE_FLOAT);
+	transparentSourceLeavesDestinationUnchanged(DataBuffer.TYPE_BYTE, 4);
+	transparentSourceLeavesDestinationUnchanged(DataBuffer.TYPE_USHORT, 4);
+	transparentSourceLeavesDestinationUnchanged(DataBuffer.TYPE_USHORT, 3);
+	zeroAlphaLeavesDestinationUnchanged();
+	opaqueBackdropIntoAlphaOutput(false);
+	opaqueBackdropIntoAlphaOutput(true);
+	colorAboveAlphaInPremultipliedBackdrop();
+	System.out.println("RasterRowsTest passed");
+    }
+
+    /**
+     * Every sample value must survive getRow/setRow.
+     */
+    static void roundTrip(int dataType) {
+	WritableRaster raster = allValues(dataType, 4);
+	int[] expected = raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[]) null);
+
+	RasterRows rows = RasterRows.create(raster);
+	int width = raster.getWidth();
+	float[] c0 = new float[width];
+	float[] c1 = new float[width];
+	float[] c2 = new float[width];
+	float[] c3 = new float[width];
+	for (int y = 0; y < raster.getHeight(); y++) {
+	    rows.getRow(y, width, c0, c1, c2, c3);
+	    rows.setRow(y, width, c0, c1, c2, c3);
+	}
+	assertPixels(expected, raster, rows.getClass().getSimpleName() + " round trip");
+    }
+
+    /**
+     * 8 bit rows of raster with other sample size: read is rounded, write and
+     * read gives same 8 bit values.
+     */
+    static void rows8(int dataType) {
+	WritableRaster raster = allValues(DataBuffer.TYPE_USHORT, 4);
+	if (dataType != DataBuffer.TYPE_USHORT) {
+	    raster = copy(raster, dataType);
+	}
+	RasterRows rows = RasterRows.create(raster);
+	String name = rows.getClass().getSimpleName();
+	if (rows instanceof RasterRows.Generic) {
+	    throw new AssertionError("No fast access for data type " + dataType);
+	}
+	int width = raster.getWidth();
+	int[][] c = new int[4][width];
+	for (int y = 0; y < raster.getHeight(); y++) {
+	    rows.getRow8(y, width, c[0], c[1], c[2], c[3]);
+	    for (int b = 0; b < 4; b++) {
+		for (int x = 0; x < width; x++) {
+		    int expected = (int) Math.round(normalized(raster, x, y, b) * 255);
+		    if (c[b][x] != expected) {
+			throw new AssertionError(name + " getRow8: " + c[b][x] + " instead of " + expected);
+		    }
+		}
+	    }
+	}
+	for (int x = 0; x < width; x++) {
+	    for (int b = 0; b < 4; b++) {
+		c[b][x] = (x + 85 * b) & 0xFF;
+	    }
+	}
+	int[][] d = new int[4][width];
+	for (int y = 0; y < raster.getHeight(); y++) {
+	    rows.setRow8(y, width, c[0], c[1], c[2], c[3]);
+	    rows.getRow8(y, width, d[0], d[1], d[2], d[3]);
+	    for (int b = 0; b < 4; b++) {
+		if (!Arrays.equals(c[b], d[b])) {
+		    throw new AssertionError(name + " setRow8 and getRow8 differ in band " + b);
+		}
+	    }
+	}
+    }
+
+    static float normalized(Raster raster, int x, int y, int band) {
+	if (raster.getDataBuffer().getDataType() == DataBuffer.TYPE_FLOAT) {
+	    return raster.getSampleFloat(x, y, band);
+	}
+	return raster.getSample(x, y, band) / 65535f;
+    }
+
+    /**
+     * Copy of 16 bit raster with normalized samples of other type.
+     */
+    static WritableRaster copy(Raster raster, int dataType) {
+	int width = raster.getWidth();
+	int height = raster.getHeight();
+	int bands = raster.getNumBands();
+	int[] bandOffsets = new int[bands];
+	for (int b = 0; b < bands; b++) {
+	    bandOffsets[b] = b;
+	}
+	SampleModel sm = new PixelInterleavedSampleModel(dataType, width, height, bands, width * bands, bandOffsets);
+	WritableRaster copy = Raster.createWritableRaster(sm, sm.createDataBuffer(), null);
+	float[] pixels = raster.getPixels(0, 0, width, height, (float[]) null);
+	for (int i = 0; i < pixels.length; i++) {
+	    pixels[i] /= 65535f;
+	}
+	copy.setPixels(0, 0, width, height, pixels);
+	return copy;
+    }
+
+    static void transparentSourceLeavesDestinationUnchanged(int dataType, int dstBands) {
+	WritableRaster dst = allValues(dataType, dstBands);
+	int[] expected = dst.getPixels(0, 0, dst.getWidth(), dst.getHeight(), (int[]) null);
+
+	// alpha band stays 0
+	WritableRaster src = Raster.createInterleavedRaster(dataType, dst.getWidth(), dst.getHeight(), 4, null);
+	int[] row = new int[dst.getWidth()];
+	Arrays.fill(row, 1000 & maxValue(dataType));
+	for (int y = 0; y < src.getHeight(); y++) {
+	    src.setSamples(0, y, src.getWidth(), 1, 0, row);
+	}
+
+	CompositeType[] types = { CompositeType.NORMAL, CompositeType.MULTIPLY, CompositeType.LUMINOSITY };
+	for (CompositeType type : types) {
+	    new IComposite(type, 1f).createContext(null, null, null).compose(src, dst, dst);
+	    assertPixels(expected, dst, type + " with transparent source, type " + dataType + ", " + dstBands + " bands");
+	}
+    }
+
+    static void zeroAlphaLeavesDestinationUnchanged() {
+	WritableRaster dst = allValues(DataBuffer.TYPE_USHORT, 4);
+	int[] expected = dst.getPixels(0, 0, dst.getWidth(), dst.getHeight(), (int[]) null);
+	WritableRaster src = allValues(DataBuffer.TYPE_USHORT, 4);
+	new IComposite(CompositeType.NORMAL, 0f).createContext(null, null, null).compose(src, dst, dst);
+	assertPixels(expected, dst, "NORMAL with alpha 0");
+    }
+
+    /**
+     * Pixels skipped because of transparent source are copied from backdrop
+     * without alpha, so they must become opaque in output.
+     */
+    static void opaqueBackdropIntoAlphaOutput(boolean fixedPoint) {
+	WritableRaster dstIn = allValues(DataBuffer.TYPE_BYTE, 3);
+	int width = dstIn.getWidth();
+	int height = dstIn.getHeight();
+	WritableRaster dstOut = Raster.createInterleavedRaster(DataBuffer.TYPE_BYTE, width, height, 4, null);
+
+	// every second source pixel is transparent
+	WritableRaster src = allValues(DataBuffer.TYPE_BYTE, 4);
+	int[] alpha = new int[width];
+	for (int x = 1; x < width; x += 2) {
+	    alpha[x] = 255;
+	}
+	for (int y = 0; y < height; y++) {
+	    src.setSamples(0, y, width, 1, 3, alpha);
+	}
+
+	new PDF_CompositeContext(new IComposite(CompositeType.MULTIPLY, 1f), fixedPoint).compose(src, dstIn, dstOut);
+
+	int[] in = dstIn.getPixels(0, 0, width, height, (int[]) null);
+	int[] out = dstOut.getPixels(0, 0, width, height, (int[]) null);
+	for (int i = 0; i < width * height; i++) {
+	    if (out[i * 4 + 3] != 255) {
+		throw new AssertionError("alpha " + out[i * 4 + 3] + " at pixel " + i + ", fixed point " + fixedPoint);
+	    }
+	    if (i % 2 == 0) {
+		for (int b = 0; b < 3; b++) {
+		    if (out[i * 4 + b] != in[i * 3 + b]) {
+			throw new AssertionError("skipped pixel " + i + " changed, fixed point " + fixedPoint);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * Invalid premultiplied pixels (color greater than alpha) are clamped when
+     * unpremultiplied, blend table may not be indexed out of bounds.
+     */
+    static void colorAboveAlphaInPremultipliedBackdrop() {
+	BufferedImage src = new BufferedImage(16, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+	BufferedImage dst = new BufferedImage(16, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+	int[] s = ((DataBufferInt) src.getRaster().getDataBuffer()).getData();
+	int[] d = ((DataBufferInt) dst.getRaster().getDataBuffer()).getData();
+	for (int x = 0; x < 16; x++) {
+	    s[x] = 0x80404040;
+	    // alpha 0x64, colors up to 0xFF
+	    d[x] = 0x64000000 | ((0x64 + x * 10) << 16) | ((0xFF - x) << 8) | 0x32;
+	}
+	CompositeType[] types = { CompositeType.MULTIPLY, CompositeType.SCREEN, CompositeType.OVERLAY };
+	for (int i = 0; i < 2 * types.length; i++) {
+	    CompositeType type = types[i / 2];
+	    IComposite composite = new IComposite(type, 1f);
+	    composite.setLookupMode(i % 2 == 1);
+	    BufferedImage out = new BufferedImage(16, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+	    composite.createContext(src.getColorModel(), dst.getColorModel(), null).compose(src.getRaster(), dst.getRaster(),
+		    out.getRaster());
+	    int[] o = ((DataBufferInt) out.getRaster().getDataBuffer()).getData();
+	    for (int x = 0; x < 16; x++) {
+		int a = o[x] >>> 24;
+		if (((o[x] >> 16) & 0xFF) > a || ((o[x] >> 8) & 0xFF) > a || (o[x] & 0xFF) > a) {
+		    throw new AssertionError(type + ", lookup " + composite.isLookupMode() + ": color above alpha " + Integer.toHexString(o[x]));
+		}
+	    }
+	}
+    }
+
+    /**
+     * Raster which contains every sample value (in every band).
+     */
+    static WritableRaster allValues(int dataType, int bands) {
+	int count = maxValue(dataType) + 1;
+	int width = 256;
+	int height = count / width;
+	WritableRaster raster = Raster.createInterleavedRaster(dataType, width, height, bands, null);
+	int[] pixels = new int[width * height * bands];
+	for (int i = 0; i < width * height; i++) {
+	    for (int b = 0; b < bands; b++) {
+		// different value per band, all values are used
+		pixels[i * bands + b] = (i * (2 * b + 1) + b) % count;
+	    }
+	}
+	raster.setPixels(0, 0, width, height, pixels);
+	return raster;
+    }
+
+    static int maxValue(int dataType) {
+	return dataType == DataBuffer.TYPE_BYTE ? 0xFF : 0xFFFF;
+    }
+
+    static void assertPixels(int[] expected, Raster raster, String message) {
+	int[] actual = raster.getPixels(0, 0, raster.getWidth(), raster.getHeight(), (int[]) null);
+	int changed = 0;
+	for (int i = 0; i < expected.length; i++) {
+	    if (expected[i] != actual[i]) {
+		changed++;
+	    }
+	}
+	if (changed != 0) {
+	    throw new AssertionError(message + ": " + changed + " of " + expected.length + " samples changed");
+	}
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.CompositeContext;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.WritableRaster;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ */
+public class SubtractiveContextTest {
+
+    public static void main(String[] args) {
+	rgbSourceOverCmykUsesGenericContext();
+	cmykSourceOverCmykIsComposed();
+	disposedContextIsReused();
+	System.out.println("SubtractiveContextTest passed");
+    }
+
+    /**
+     * Java2D passes this when sRGB image is drawn into CMYK image, generic
+     * context is used as before.
+     */
+    static void rgbSourceOverCmykUsesGenericContext() {
+	ColorModel rgb = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB).getColorModel();
+	ColorModel cmyk = cmykModel();
+	IComposite composite = new IComposite(CompositeType.MULTIPLY, 1f);
+	CompositeContext context = composite.createContext(rgb, cmyk, null);
+	check(context instanceof PDF_CompositeContext, "generic context for RGB source over CMYK");
+	WritableRaster dst = cmyk.createCompatibleWritableRaster(4, 4);
+	context.compose(rgb.createCompatibleWritableRaster(4, 4), dst, dst);
+	context.dispose();
+	check(composite.createContext(null, cmyk, null) instanceof PDF_CompositeContext, "generic context without source color model");
+    }
+
+    static void cmykSourceOverCmykIsComposed() {
+	ColorModel cm = cmykModel();
+	WritableRaster src = cm.createCompatibleWritableRaster(4, 4);
+	WritableRaster dst = cm.createCompatibleWritableRaster(4, 4);
+	fill(src, new int[] { 255, 0, 0, 0, 255 });
+	fill(dst, new int[] { 0, 255, 0, 0, 255 });
+
+	CompositeContext context = new IComposite(CompositeType.MULTIPLY, 1f).createContext(cm, cm, null);
+	check(context instanceof SubtractiveContext, "CMYK context");
+	context.compose(src, dst, dst);
+	context.dispose();
+
+	// multiply of cyan and magenta is blue (in subtractive colorants)
+	int[] pixel = dst.getPixel(0, 0, (int[]) null);
+	int[] expected = { 255, 255, 0, 0, 255 };
+	for (int i = 0; i < expected.length; i++) {
+	    check(pixel[i] == expected[i], "sample " + i + " expected " + expected[i] + " but was " + pixel[i]);
+	}
+    }
+
+    static void disposedContextIsReused() {
+	IComposite composite = new IComposite(CompositeType.SCREEN, 0.5f);
+	CompositeContext first = composite.createSubtractiveContext(4, 4);
+	first.dispose();
+	check(composite.createSubtractiveContext(4, 4) == first, "disposed context is reused");
+	check(composite.createSubtractiveContext(4, 4) != first, "pooled context is taken only once");
+	first.dispose();
+	check(composite.createSubtractiveContext(5, 4) != first, "context with other colorants is not reused");
+    }
+
+    static ColorModel cmykModel() {
+	return new ComponentColorModel(new CMYK(), true, false, Transparency.TRANSLUCENT, DataBuffer.TYPE_BYTE);
+    }
+
+    static void fill(WritableRaster raster, int[] pixel) {
+	for (int y = 0; y < raster.getHeight(); y++) {
+	    for (int x = 0; x < raster.getWidth(); x++) {
+		raster.setPixel(x, y, pixel);
+	    }
+	}
+    }
+
+    static void check(boolean condition, String message) {
+	if (!condition) {
+	    throw new AssertionError(message);
+	}
+    }
+
+    /**
+     * Naive CMYK color space, only type and number of components are used.
+     */
+    static class CMYK extends ColorSpace {
+
+	private static final long serialVersionUID = 1L;
+
+	CMYK() {
+	    super(ColorSpace.TYPE_CMYK, 4);
+	}
+
+	@Override
+	public float[] toRGB(float[] colorvalue) {
+	    float k = 1 - colorvalue[3];
+	    return new float[] { (1 - colorvalue[0]) * k, (1 - colorvalue[1]) * k, (1 - colorvalue[2]) * k };
+	}
+
+	@Override
+	public float[] fromRGB(float[] rgbvalue) {
+	    return new float[] { 1 - rgbvalue[0], 1 - rgbvalue[1], 1 - rgbvalue[2], 0 };
+	}
+
+	@Override
+	public float[] toCIEXYZ(float[] colorvalue) {
+	    return ColorSpace.getInstance(ColorSpace.CS_sRGB).toCIEXYZ(toRGB(colorvalue));
+	}
+
+	@Override
+	public float[] fromCIEXYZ(float[] colorvalue) {
+	    return fromRGB(ColorSpace.getInstance(ColorSpace.CS_sRGB).fromCIEXYZ(colorvalue));
+	}
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import java.awt.image.BufferedImage;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ */
+public class TransparencyGroupTest {
+
+    public static void main(String[] args) {
+	singleTranslucentElementInKnockoutGroup();
+	translucentCompositeInKnockoutGroup();
+	knockoutReplacesPreviousElement();
+	softMaskIsRejected();
+	System.out.println("TransparencyGroupTest passed");
+    }
+
+    /**
+     * One element with 50% raster alpha must keep 50% alpha, shape may not be
+     * applied twice.
+     */
+    static void singleTranslucentElementInKnockoutGroup() {
+	for (int i = 0; i < 2; i++) {
+	    boolean isolated = i == 0;
+	    TransparencyGroup group = new TransparencyGroup(isolated, true);
+	    group.add(fill(8, 8, 0x80FF0000).getRaster(), new IComposite(CompositeType.NORMAL, 1f), 0, 0);
+
+	    BufferedImage dst = fill(8, 8, 0);
+	    group.compose(dst.getRaster());
+	    assertPixel(dst, 0x80FF0000, 1, "knockout, isolated=" + isolated);
+	}
+    }
+
+    static void translucentCompositeInKnockoutGroup() {
+	TransparencyGroup group = new TransparencyGroup(true, true);
+	group.add(fill(8, 8, 0xFF0000FF).getRaster(), new IComposite(CompositeType.NORMAL, 0.5f), 0, 0);
+
+	BufferedImage dst = fill(8, 8, 0);
+	group.compose(dst.getRaster());
+	assertPixel(dst, 0x800000FF, 1, "knockout, composite alpha 0.5");
+    }
+
+    static void softMaskIsRejected() {
+	IComposite masked = new IComposite(CompositeType.NORMAL, 1f);
+	masked.setSoftMask(new SoftMask(fill(8, 8, 0xFFFFFFFF).getRaster(), SoftMask.Type.ALPHA));
+	TransparencyGroup group = new TransparencyGroup(true, false);
+	try {
+	    group.add(fill(8, 8, 0xFF0000FF).getRaster(), masked, 0, 0);
+	    throw new AssertionError("soft mask accepted by add");
+	} catch (IllegalArgumentException ex) {
+	    // expected
+	}
+
+	IComposite composite = new IComposite(CompositeType.NORMAL, 1f);
+	group.add(fill(8, 8, 0xFF0000FF).getRaster(), composite, 0, 0);
+	composite.setSoftMask(masked.getSoftMask());
+	try {
+	    group.compose(fill(8, 8, 0).getRaster());
+	    throw new AssertionError("soft mask accepted by compose");
+	} catch (IllegalArgumentException ex) {
+	    // expected
+	}
+    }
+
+    /**
+     * Second element knocks out first one where it is opaque.
+     */
+    static void knockoutReplacesPreviousElement() {
+	TransparencyGroup group = new TransparencyGroup(true, true);
+	group.add(fill(8, 8, 0xFF00FF00).getRaster(), new IComposite(CompositeType.NORMAL, 1f), 0, 0);
+	group.add(fill(8, 8, 0x80FF0000).getRaster(), new IComposite(CompositeType.NORMAL, 1f), 0, 0);
+
+	BufferedImage dst = fill(8, 8, 0);
+	group.compose(dst.getRaster());
+	// shape 0.5: half of green (alpha 1) and half of red (alpha 1)
+	assertPixel(dst, 0xFF807F00, 1, "knockout of opaque element");
+    }
+
+    static BufferedImage fill(int width, int height, int argb) {
+	BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+	for (int y = 0; y < height; y++) {
+	    for (int x = 0; x < width; x++) {
+		image.setRGB(x, y, argb);
+	    }
+	}
+	return image;
+    }
+
+    static void assertPixel(BufferedImage image, int expected, int tolerance, String message) {
+	for (int y = 0; y < image.getHeight(); y++) {
+	    for (int x = 0; x < image.getWidth(); x++) {
+		int actual = image.getRGB(x, y);
+		for (int shift = 0; shift < 32; shift += 8) {
+		    int a = (actual >>> shift) & 0xFF;
+		    int e = (expected >>> shift) & 0xFF;
+		    if (Math.abs(a - e) > tolerance) {
+			throw new AssertionError(message + ": expected " + Integer.toHexString(expected) + " but was " + Integer.toHexString(actual)
+				+ " at " + x + ", " + y);
+		    }
+		}
+	    }
+	}
+    }
+}
@@ -0,0 +1,231 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color.function;
+
+import java.util.Random;
+
+import com.smartg.color.CompositeType;
+
+/**
+ * Self-checking test, run with main. Throws AssertionError on failure.
+ */
+public class ColorFunctionTest {
+
+    static final float EPS = 1e-5f;
+
+    public static void main(String[] args) {
+	colorAndLuminosityDiffer();
+	nonSeparableMatchPdf();
+	grayBackdropKeepsGrayWithSaturation();
+	batchMethodsMatchCompute();
+	nonSeparableRejectsChannelCompute();
+	System.out.println("ColorFunctionTest passed");
+    }
+
+    static void colorAndLuminosityDiffer() {
+	float[] cb = { 0.2f, 0.6f, 0.3f };
+	float[] cs = { 0.9f, 0.1f, 0.1f };
+	float[] color = compute(CompositeType.COLOR, cb, cs);
+	float[] luminosity = compute(CompositeType.LUMINOSITY, cb, cs);
+
+	// COLOR keeps luminosity of backdrop, LUMINOSITY takes it from source
+	assertEquals(lum(cb), lum(color), "COLOR luminosity");
+	assertEquals(lum(cs), lum(luminosity), "LUMINOSITY luminosity");
+	// COLOR takes hue of red source, LUMINOSITY keeps green backdrop
+	check(color[0] > color[1] && color[0] > color[2], "COLOR hue");
+	check(luminosity[1] > luminosity[0] && luminosity[1] > luminosity[2], "LUMINOSITY hue");
+    }
+
+    static void nonSeparableMatchPdf() {
+	Random random = new Random(7);
+	CompositeType[] types = { CompositeType.HUE, CompositeType.SATURATION, CompositeType.COLOR, CompositeType.LUMINOSITY };
+	for (int i = 0; i < 10000; i++) {
+	    float[] cb = { random.nextFloat(), random.nextFloat(), random.nextFloat() };
+	    float[] cs = { random.nextFloat(), random.nextFloat(), random.nextFloat() };
+	    for (CompositeType type : types) {
+		float[] actual = compute(type, cb, cs);
+		double[] expected = reference(type, cb, cs);
+		for (int c = 0; c < 3; c++) {
+		    if (Math.abs(actual[c] - expected[c]) > 1e-4) {
+			throw new AssertionError(type + ": expected " + expected[c] + " but was " + actual[c]);
+		    }
+		}
+	    }
+	}
+    }
+
+    /**
+     * SetSat of gray color is black, so gray backdrop stays unchanged.
+     */
+    static void grayBackdropKeepsGrayWithSaturation() {
+	float[] gray = { 0.5f, 0.5f, 0.5f };
+	float[] result = compute(CompositeType.SATURATION, gray, new float[] { 0.9f, 0.2f, 0.1f });
+	for (int c = 0; c < 3; c++) {
+	    assertEquals(0.5f, result[c], "SATURATION over gray");
+	}
+    }
+
+    static void batchMethodsMatchCompute() {
+	Random random = new Random(11);
+	int length = 100;
+	int offset = 5;
+	for (CompositeType type : CompositeType.values()) {
+	    ColorFunction f = ColorFunction.create(type);
+	    if (f == null) {
+		continue;
+	    }
+	    float[] cb = new float[3 * (offset + length)];
+	    float[] cs = new float[cb.length];
+	    for (int i = 0; i < cb.length; i++) {
+		cb[i] = random.nextFloat();
+		cs[i] = random.nextFloat();
+	    }
+	    float[] interleaved = new float[cb.length];
+	    f.computeRGB(cb, cs, interleaved, 3 * offset, length);
+
+	    float[][] planes = new float[9][offset + length];
+	    for (int i = 0; i < offset + length; i++) {
+		for (int c = 0; c < 3; c++) {
+		    planes[c][i] = cb[3 * i + c];
+		    planes[3 + c][i] = cs[3 * i + c];
+		}
+	    }
+	    f.computeRow(planes[0], planes[1], planes[2], planes[3], planes[4], planes[5], planes[6], planes[7], planes[8], offset, length);
+
+	    for (int i = offset; i < offset + length; i++) {
+		float[] b = { cb[3 * i], cb[3 * i + 1], cb[3 * i + 2] };
+		float[] s = { cs[3 * i], cs[3 * i + 1], cs[3 * i + 2] };
+		float[] expected = compute(type, b, s);
+		for (int c = 0; c < 3; c++) {
+		    assertEquals(expected[c], interleaved[3 * i + c], type + " computeRGB");
+		    assertEquals(expected[c], planes[6 + c][i], type + " computeRow");
+		}
+	    }
+	}
+    }
+
+    static void nonSeparableRejectsChannelCompute() {
+	float[] a = new float[3];
+	try {
+	    ColorFunction.create(CompositeType.COLOR).compute(a, a, a, 0, 3);
+	} catch (UnsupportedOperationException e) {
+	    return;
+	}
+	throw new AssertionError("compute(cb, cs, out, offset, length) of non-separable function");
+    }
+
+    /**
+     * Compute one pixel with compute(float[], float...), per channel for
+     * separable functions.
+     */
+    static float[] compute(CompositeType type, float[] cb, float[] cs) {
+	ColorFunction f = ColorFunction.create(type);
+	float[] out = new float[3];
+	if (f.getNumInputs() == 6) {
+	    f.compute(out, cb[0], cb[1], cb[2], cs[0], cs[1], cs[2]);
+	} else {
+	    float[] o = new float[1];
+	    for (int c = 0; c < 3; c++) {
+		f.compute(o, cb[c], cs[c]);
+		out[c] = o[0];
+	    }
+	}
+	return out;
+    }
+
+    static double[] reference(CompositeType type, float[] cb, float[] cs) {
+	double[] b = { cb[0], cb[1], cb[2] };
+	double[] s = { cs[0], cs[1], cs[2] };
+	switch (type) {
+	case HUE:
+	    return setLum(setSat(s, sat(b)), lum(b));
+	case SATURATION:
+	    return setLum(setSat(b, sat(s)), lum(b));
+	case COLOR:
+	    return setLum(s, lum(b));
+	default:
+	    return setLum(b, lum(s));
+	}
+    }
+
+    static double lum(double[] c) {
+	return 0.3 * c[0] + 0.59 * c[1] + 0.11 * c[2];
+    }
+
+    static float lum(float[] c) {
+	return 0.3f * c[0] + 0.59f * c[1] + 0.11f * c[2];
+    }
+
+    static double sat(double[] c) {
+	return Math.max(c[0], Math.max(c[1], c[2])) - Math.min(c[0], Math.min(c[1], c[2]));
+    }
+
+    static double[] setSat(double[] c, double s) {
+	double n = Math.min(c[0], Math.min(c[1], c[2]));
+	double x = Math.max(c[0], Math.max(c[1], c[2]));
+	double[] r = new double[3];
+	if (x > n) {
+	    for (int i = 0; i < 3; i++) {
+		r[i] = (c[i] - n) * s / (x - n);
+	    }
+	}
+	return r;
+    }
+
+    static double[] setLum(double[] c, double l) {
+	double d = l - lum(c);
+	double[] r = { c[0] + d, c[1] + d, c[2] + d };
+	double lr = lum(r);
+	double n = Math.min(r[0], Math.min(r[1], r[2]));
+	double x = Math.max(r[0], Math.max(r[1], r[2]));
+	for (int i = 0; i < 3; i++) {
+	    if (n < 0) {
+		r[i] = lr + (r[i] - lr) * lr / (lr - n);
+	    }
+	    if (x > 1) {
+		r[i] = lr + (r[i] - lr) * (1 - lr) / (x - lr);
+	    }
+	}
+	return r;
+    }
+
+    static void assertEquals(float expected, float actual, String message) {
+	if (Math.abs(expected - actual) > EPS) {
+	    throw new AssertionError(message + ": expected " + expected + " but was " + actual);
+	}
+    }
+
+    static void check(boolean condition, String message) {
+	if (!condition) {
+	    throw new AssertionError(message);
+	}
+    }
+}
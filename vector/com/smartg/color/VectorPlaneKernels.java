@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) Andrey Kuznetsov. All Rights Reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *
+ *  o Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ *
+ *  o Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ *
+ *  o Neither the name of imagero Andrey Kuznetsov nor the names of
+ *    its contributors may be used to endorse or promote products derived
+ *    from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO,
+ * THE IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR
+ * PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT OWNER OR
+ * CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO,
+ * PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS;
+ * OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY,
+ * WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE
+ * OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE,
+ * EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+
+package com.smartg.color;
+
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PlaneKernels with jdk.incubator.vector. This source folder is optional,
+ * compile it over classes of library:
+ * 
+ * <pre>
+ * javac --add-modules jdk.incubator.vector -cp classes -d classes vector/com/smartg/color/*.java
+ * </pre>
+ * 
+ * and run with <code>--add-modules jdk.incubator.vector</code>. Composer
+ * loads this class by name and uses scalar loops if class or module is
+ * missing. Results are same as of scalar loops (same operations in same
+ * order).
+ */
+final class VectorPlaneKernels implements PlaneKernels {
+
+    private static final VectorSpecies<Float> SPECIES = FloatVector.SPECIES_PREFERRED;
+
+    public void multiply(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cs.mul(cb).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = src[i] * dst[i];
+	}
+    }
+
+    public void screen(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cb.add(cs).sub(cb.mul(cs)).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    float cs = src[i];
+	    float cb = dst[i];
+	    res[i] = cb + cs - (cb * cs);
+	}
+    }
+
+    public void darken(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cs.min(cb).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = Math.min(src[i], dst[i]);
+	}
+    }
+
+    public void lighten(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cs.max(cb).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = Math.max(src[i], dst[i]);
+	}
+    }
+
+    public void difference(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cs.sub(cb).abs().intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = Math.abs(src[i] - dst[i]);
+	}
+    }
+
+    public void exclusion(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    FloatVector m = cs.mul(cb);
+	    cb.add(cs).sub(m.add(m)).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    float cs = src[i];
+	    float cb = dst[i];
+	    float m = cs * cb;
+	    res[i] = cb + cs - (m + m);
+	}
+    }
+
+    public void add(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cb.add(cs).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = dst[i] + src[i];
+	}
+    }
+
+    public void subtract(float[] src, float[] dst, float[] res, int offset, int length) {
+	final int step = SPECIES.length();
+	int i = offset;
+	for (int end = offset + SPECIES.loopBound(length); i < end; i += step) {
+	    FloatVector cs = FloatVector.fromArray(SPECIES, src, i);
+	    FloatVector cb = FloatVector.fromArray(SPECIES, dst, i);
+	    cb.sub(cs).max(0f).intoArray(res, i);
+	}
+	for (int end = offset + length; i < end; i++) {
+	    res[i] = Math.max(0f, dst[i] - src[i]);
+	}
+    }
+}